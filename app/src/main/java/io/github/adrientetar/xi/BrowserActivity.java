@@ -25,6 +25,7 @@ import android.widget.TextView;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 public class BrowserActivity extends AppCompatActivity
         implements View.OnClickListener, NavigationView.OnNavigationItemSelectedListener {
@@ -67,7 +68,7 @@ public class BrowserActivity extends AppCompatActivity
                             // TODO: show a snackbar to say file creation failed
                             return;
                         }
-                        BrowserActivity.this.updateCurrentPath();
+                        BrowserActivity.this.updateCurrentPath(create);
                     }
                 });
                 builder.setNegativeButton("Cancel", null);
@@ -91,7 +92,7 @@ public class BrowserActivity extends AppCompatActivity
                         String text = input.getText().toString();
                         File create = new File(file, text);
                         if (create.mkdir()) {
-                            BrowserActivity.this.updateCurrentPath();
+                            BrowserActivity.this.updateCurrentPath(create);
                         }
                     }
                 });
@@ -176,6 +177,25 @@ public class BrowserActivity extends AppCompatActivity
             return true;
         }
 
+        if (id == R.id.action_search) {
+            this.showSearch();
+            return true;
+        }
+
+        if (id == R.id.action_sort_name || id == R.id.action_sort_size ||
+                id == R.id.action_sort_modified) {
+            ListingOptions.Order order = id == R.id.action_sort_name ? ListingOptions.Order.NAME :
+                    id == R.id.action_sort_size ? ListingOptions.Order.SIZE :
+                            ListingOptions.Order.MODIFIED;
+            this.setListingOptions(this.getListingOptions().withOrder(order));
+            return true;
+        }
+
+        if (id == R.id.action_filter) {
+            this.showFilter();
+            return true;
+        }
+
         if (id == R.id.action_settings) {
             return true;
         }
@@ -190,10 +210,22 @@ public class BrowserActivity extends AppCompatActivity
         this.toggle.onConfigurationChanged(newConfig);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // get xi-core going while the user picks a file
+        ((XiApplication) this.getApplication()).prewarm();
+        // and catch up with files that changed while we were away
+        ((XiApplication) this.getApplication()).getSearchIndexer().update();
+    }
+
     @Override
     public void onClick(View view) {
         TextView textView = (TextView) view.findViewById(R.id.item_name);
-        File path = new File(this.getCurrentPath(), (String) textView.getText());
+        this.open(new File(this.getCurrentPath(), (String) textView.getText()));
+    }
+
+    private void open(File path) {
         if (path.isDirectory()) {
             this.setCurrentPath(path);
         } else {
@@ -205,6 +237,95 @@ public class BrowserActivity extends AppCompatActivity
         }
     }
 
+    private ListingOptions getListingOptions() {
+        return ((XiApplication) this.getApplication()).getListingOptions();
+    }
+
+    private void setListingOptions(ListingOptions options) {
+        ((XiApplication) this.getApplication()).setListingOptions(options);
+        ItemFragment fragment = (ItemFragment) this.getSupportFragmentManager(
+                ).findFragmentById(R.id.fragment_container);
+        fragment.setListingOptions(options);
+    }
+
+    private void showFilter() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Show files matching:");
+        final EditText input = new EditText(this);
+        input.setHint("*.txt");
+        input.setText(this.getListingOptions().filter);
+        builder.setView(input);
+        builder.setPositiveButton("OK", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                BrowserActivity activity = BrowserActivity.this;
+                String filter = input.getText().toString().trim();
+                activity.setListingOptions(activity.getListingOptions().withFilter(filter));
+            }
+        });
+        builder.setNeutralButton("Show all", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                BrowserActivity activity = BrowserActivity.this;
+                activity.setListingOptions(activity.getListingOptions().withFilter(null));
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+
+    private void showSearch() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Find a file:");
+        final EditText input = new EditText(this);
+        builder.setView(input);
+        builder.setPositiveButton("OK", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                BrowserActivity.this.showResults(input.getText().toString());
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+
+    private void showResults(final String query) {
+        final SearchIndexer indexer = ((XiApplication) this.getApplication()).getSearchIndexer();
+        // The index may be busy loading or updating, don't wait for it on the main thread
+        new Thread("XiSearch") {
+            @Override
+            public void run() {
+                final List<String> results = indexer.search(query, 50);
+                BrowserActivity.this.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!BrowserActivity.this.isFinishing()) {
+                            BrowserActivity.this.showResults(indexer, query, results);
+                        }
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private void showResults(final SearchIndexer indexer, String query, final List<String> results) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(query);
+        if (results.isEmpty()) {
+            builder.setMessage("No matching file.");
+        } else {
+            builder.setItems(results.toArray(new String[results.size()]),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialogInterface, int i) {
+                            BrowserActivity.this.open(indexer.getFile(results.get(i)));
+                        }
+                    });
+        }
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+
     @SuppressWarnings("StatementWithEmptyBody")
     @Override
     public boolean onNavigationItemSelected(MenuItem item) {
@@ -287,4 +408,14 @@ public class BrowserActivity extends AppCompatActivity
                 ).findFragmentById(R.id.fragment_container);
         fragment.notifyDataSetChanged();
     }
+
+    /**
+     * Adds created, which was just made in the current path, to the listing.
+     */
+    public void updateCurrentPath(File created) {
+        ItemFragment fragment = (ItemFragment) this.getSupportFragmentManager(
+                ).findFragmentById(R.id.fragment_container);
+        fragment.notifyFileCreated(created);
+        ((XiApplication) this.getApplication()).getSearchIndexer().add(created);
+    }
 }
@@ -0,0 +1,184 @@
+package io.github.adrientetar.xi;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Listings of recently visited directories, kept up to date while they are cached.
+ *
+ * Each cached directory is watched, and entries created, deleted or moved are patched in
+ * rather than listing it all again. Events only touch a map of the entries by name, the list
+ * handed out is made again on the next get() after any number of them. A listing is also
+ * dropped if the directory's mtime changed in a way that wasn't seen.
+ *
+ * The least recently used directories go first once there are more than MAX_ITEMS entries
+ * in all, or more than MAX_DIRECTORIES directories, since each takes an inotify watch
+ * however few entries it has.
+ */
+
+class DirectoryCache {
+    private static final int MAX_ITEMS = 50000;
+    private static final int MAX_DIRECTORIES = 64;
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+            FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF |
+            FileObserver.MOVE_SELF;
+
+    // In access order, guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int itemCount = 0;
+
+    private class Entry extends FileObserver {
+        final String path;
+        // In listing order, new entries last
+        final LinkedHashMap<String, FileItem> items = new LinkedHashMap<>();
+        // What get() hands out, null once items changed
+        List<FileItem> snapshot;
+        long modified;
+
+        Entry(String path, List<FileItem> items, long modified) {
+            super(path, EVENTS);
+            this.path = path;
+            for (FileItem item : items) {
+                this.items.put(item.name, item);
+            }
+            this.modified = modified;
+        }
+
+        List<FileItem> getSnapshot() {
+            if (this.snapshot == null) {
+                this.snapshot = Collections.unmodifiableList(new ArrayList<>(this.items.values()));
+            }
+            return this.snapshot;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            DirectoryCache.this.onEvent(this, event & FileObserver.ALL_EVENTS, name);
+        }
+    }
+
+    /**
+     * Returns the entries of directory, or null if they aren't cached.
+     */
+    synchronized List<FileItem> get(File directory) {
+        Entry entry = this.entries.get(directory.getPath());
+        if (entry == null) {
+            return null;
+        }
+        if (directory.lastModified() != entry.modified) {
+            // changed while we weren't looking
+            this.remove(entry);
+            return null;
+        }
+        return entry.getSnapshot();
+    }
+
+    /**
+     * Caches the entries of directory, as listed when it had modified as mtime.
+     */
+    synchronized void put(File directory, List<FileItem> items, long modified) {
+        Entry previous = this.entries.get(directory.getPath());
+        if (previous != null) {
+            this.remove(previous);
+        }
+        Entry entry = new Entry(directory.getPath(), items, modified);
+        this.entries.put(entry.path, entry);
+        this.itemCount += entry.items.size();
+        entry.startWatching();
+        if (directory.lastModified() != modified) {
+            // changed before the watch started
+            this.remove(entry);
+            return;
+        }
+        this.trim();
+    }
+
+    /**
+     * Adds an entry that was just made in directory, returns false if the directory isn't
+     * cached.
+     */
+    synchronized boolean add(File directory, FileItem item) {
+        Entry entry = this.entries.get(directory.getPath());
+        if (entry == null) {
+            return false;
+        }
+        this.patch(entry, item, null);
+        entry.modified = directory.lastModified();
+        return true;
+    }
+
+    synchronized void clear() {
+        for (Entry entry : this.entries.values()) {
+            entry.stopWatching();
+        }
+        this.entries.clear();
+        this.itemCount = 0;
+    }
+
+    // Called from the FileObserver thread
+    private synchronized void onEvent(Entry entry, int event, String name) {
+        if (this.entries.get(entry.path) != entry) {
+            return;
+        }
+        File directory = new File(entry.path);
+        switch (event) {
+            case FileObserver.CREATE:
+            case FileObserver.MOVED_TO:
+                this.patch(entry, FileItem.fromFile(new File(directory, name)), name);
+                break;
+            case FileObserver.DELETE:
+            case FileObserver.MOVED_FROM:
+                this.patch(entry, null, name);
+                break;
+            default:
+                // the directory itself is gone
+                this.remove(entry);
+                return;
+        }
+        entry.modified = directory.lastModified();
+    }
+
+    /**
+     * Replaces the entry named name by item, adding or removing as needed.
+     */
+    private void patch(Entry entry, FileItem item, String name) {
+        if (name == null) {
+            name = item.name;
+        }
+        Map<String, FileItem> items = entry.items;
+        int size = items.size();
+        if (item != null) {
+            // keeps the place of one that is replaced
+            items.put(name, item);
+        } else if (items.remove(name) == null) {
+            return;
+        }
+        entry.snapshot = null;
+        this.itemCount += items.size() - size;
+        this.trim();
+    }
+
+    private void remove(Entry entry) {
+        entry.stopWatching();
+        this.entries.remove(entry.path);
+        this.itemCount -= entry.items.size();
+    }
+
+    private void trim() {
+        Iterator<Entry> it = this.entries.values().iterator();
+        while ((this.itemCount > MAX_ITEMS || this.entries.size() > MAX_DIRECTORIES) &&
+                it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            entry.stopWatching();
+            this.itemCount -= entry.items.size();
+        }
+    }
+}
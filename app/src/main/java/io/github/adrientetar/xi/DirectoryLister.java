@@ -0,0 +1,236 @@
+package io.github.adrientetar.xi;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists directories on a background thread, and arranges the entries as options say there too.
+ *
+ * Names come in one go from File.list(), what takes long in big directories is checking each
+ * entry. Sorting names needs no check, so a first listing checks entries in name order and
+ * hands them over in chunks as it goes, the first being about a screenful. Directories go in
+ * a section of their own if they come first, so that in name order the rows are already
+ * where they end up. Once all entries are checked they are arranged, and compared with those
+ * already shown so that only the rows that changed are touched.
+ */
+
+class DirectoryLister {
+    private static final int FIRST_CHUNK = 32;
+    private static final int CHUNK = 512;
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2,
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "XiList-" + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    interface Callback {
+        // Called from the main thread with entries of a first listing as they are checked, in
+        // name order and filtered. If directories come first they go after the directories
+        // handed over before, else directories is empty. Files go last.
+        void onEntries(List<FileItem> directories, List<FileItem> files);
+        // Called from the main thread with all entries, those to show in order, and how these
+        // differ from the old ones or those handed to onEntries, diff is null if there were
+        // none. modified is the mtime listed at, -1 if nothing was listed.
+        void onListed(List<FileItem> entries, List<FileItem> items, DiffUtil.DiffResult diff,
+                      long modified);
+    }
+
+    /**
+     * A listing under way, nothing is handed over anymore once it is cancelled.
+     */
+    static class Listing {
+        private volatile boolean cancelled = false;
+        private Future<?> future;
+
+        // Only used from the main thread
+        void cancel() {
+            this.cancelled = true;
+            this.future.cancel(false);
+        }
+    }
+
+    /**
+     * Lists directory, replacing old which is shown now. If old is empty, entries are handed
+     * to onEntries as they are checked.
+     */
+    Listing list(final File directory, final ListingOptions options, final List<FileItem> old,
+                 final Callback callback) {
+        final Listing listing = new Listing();
+        listing.future = EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                long modified = directory.lastModified();
+                List<FileItem> shown = old;
+                List<FileItem> entries;
+                if (old.isEmpty()) {
+                    shown = new ArrayList<>();
+                    entries = DirectoryLister.this.stream(directory, options, shown, listing,
+                            callback);
+                } else {
+                    entries = DirectoryLister.list(directory, listing);
+                }
+                if (entries != null) {
+                    DirectoryLister.this.arrange(entries, modified, options, shown, listing,
+                            callback);
+                }
+            }
+        });
+        return listing;
+    }
+
+    /**
+     * Arranges entries that were listed before, replacing old which is shown now.
+     */
+    Listing arrange(final List<FileItem> entries, final ListingOptions options,
+                    final List<FileItem> old, final Callback callback) {
+        final Listing listing = new Listing();
+        listing.future = EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                DirectoryLister.this.arrange(entries, -1, options, old, listing, callback);
+            }
+        });
+        return listing;
+    }
+
+    // Returns null if cancelled
+    private static List<FileItem> list(File directory, Listing listing) {
+        String[] names = directory.list();
+        if (names == null) {
+            names = new String[0];
+        }
+        List<FileItem> entries = new ArrayList<>(names.length);
+        for (String name : names) {
+            if (listing.cancelled) {
+                return null;
+            }
+            entries.add(FileItem.fromFile(new File(directory, name)));
+        }
+        return entries;
+    }
+
+    // Returns null if cancelled, entries handed over are added to shown
+    private List<FileItem> stream(File directory, ListingOptions options, List<FileItem> shown,
+                                  Listing listing, Callback callback) {
+        String[] names = directory.list();
+        if (names == null) {
+            names = new String[0];
+        }
+        ListingOptions.sortNames(names);
+        List<FileItem> entries = new ArrayList<>(names.length);
+        List<FileItem> shownDirectories = new ArrayList<>();
+        List<FileItem> shownFiles = new ArrayList<>();
+        int size = FIRST_CHUNK;
+        List<FileItem> directories = new ArrayList<>();
+        List<FileItem> files = new ArrayList<>();
+        for (String name : names) {
+            if (listing.cancelled) {
+                return null;
+            }
+            FileItem item = FileItem.fromFile(new File(directory, name));
+            entries.add(item);
+            if (options.accepts(item)) {
+                if (item.directory && options.directoriesFirst) {
+                    directories.add(item);
+                } else {
+                    files.add(item);
+                }
+            }
+            if (directories.size() + files.size() == size) {
+                this.deliver(directories, files, listing, callback);
+                shownDirectories.addAll(directories);
+                shownFiles.addAll(files);
+                size = CHUNK;
+                directories = new ArrayList<>();
+                files = new ArrayList<>();
+            }
+        }
+        // the rest comes with the arranged entries
+        shown.addAll(shownDirectories);
+        shown.addAll(shownFiles);
+        return entries;
+    }
+
+    private void deliver(final List<FileItem> directories, final List<FileItem> files,
+                         final Listing listing, final Callback callback) {
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!listing.cancelled) {
+                    callback.onEntries(directories, files);
+                }
+            }
+        });
+    }
+
+    private void arrange(final List<FileItem> entries, final long modified, ListingOptions options,
+                         List<FileItem> old, final Listing listing, final Callback callback) {
+        final List<FileItem> items = options.apply(entries);
+        if (listing.cancelled) {
+            return;
+        }
+        // rows keep their relative order by name, a size or date can change and move them
+        boolean moves = options.order != ListingOptions.Order.NAME;
+        final DiffUtil.DiffResult diff = old.isEmpty() ? null :
+                DiffUtil.calculateDiff(new Diff(old, items), moves);
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!listing.cancelled) {
+                    callback.onListed(entries, items, diff, modified);
+                }
+            }
+        });
+    }
+
+    private static class Diff extends DiffUtil.Callback {
+        private final List<FileItem> old;
+        private final List<FileItem> items;
+
+        Diff(List<FileItem> old, List<FileItem> items) {
+            this.old = old;
+            this.items = items;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return this.old.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return this.items.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return this.old.get(oldPosition).name.equals(this.items.get(newPosition).name);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            FileItem old = this.old.get(oldPosition);
+            FileItem item = this.items.get(newPosition);
+            return old.drawable == item.drawable && old.size == item.size &&
+                    old.modified == item.modified;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -16,7 +17,9 @@ import android.widget.TextView;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Demonstrates the use of {@link RecyclerView} with a {@link LinearLayoutManager} and a
@@ -44,6 +47,15 @@ public class ItemFragment extends Fragment {
     protected List<FileItem> mDataset;
     protected File mFile;
 
+    private final DirectoryLister mLister = new DirectoryLister();
+    private DirectoryLister.Listing mListing;
+    private boolean mListed = false;
+    // All entries, of which mDataset has those shown
+    private List<FileItem> mEntries = new ArrayList<>();
+    private ListingOptions mOptions = ListingOptions.DEFAULT;
+    // Directories handed over so far by a first listing, they come before the files
+    private int mStreamedDirectories = 0;
+
     protected View.OnClickListener mCallback;
 
     @Override
@@ -56,7 +68,6 @@ public class ItemFragment extends Fragment {
         }
 
         mDataset = new ArrayList<>();
-        initDataset();
     }
 
     @Override
@@ -99,6 +110,11 @@ public class ItemFragment extends Fragment {
         // Set CustomAdapter as the adapter for RecyclerView.
         mRecyclerView.setAdapter(mAdapter);
 
+        // Listing stops when the view goes away, start over if it didn't finish
+        if (!mListed) {
+            initDataset();
+        }
+
         /*mLinearLayoutRadioButton = (RadioButton) rootView.findViewById(R.id.linear_layout_rb);
         mLinearLayoutRadioButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -147,6 +163,16 @@ public class ItemFragment extends Fragment {
         mRecyclerView.scrollToPosition(scrollPosition);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        if (mListing != null) {
+            mListing.cancel();
+            mListing = null;
+        }
+    }
+
     @Override
     public void onSaveInstanceState(Bundle savedInstanceState) {
         // Save currently selected layout manager.
@@ -154,43 +180,144 @@ public class ItemFragment extends Fragment {
         super.onSaveInstanceState(savedInstanceState);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        // options may have changed while we were in the back stack
+        setListingOptions(getXiApplication().getListingOptions());
+    }
+
+    private XiApplication getXiApplication() {
+        return (XiApplication) getActivity().getApplication();
+    }
+
+    private DirectoryCache getDirectoryCache() {
+        return getXiApplication().getDirectoryCache();
+    }
+
     /**
-     * Generates Strings for RecyclerView's adapter. This data would usually come
-     * from a local content provider or remote server.
+     * Lists the directory in the background, a directory seen before is taken from the cache.
+     * Entries are shown in name order as they are listed, and arranged once all are in.
      */
     private void initDataset() {
+        if (mListing != null) {
+            mListing.cancel();
+            mListing = null;
+        }
+        mEntries = new ArrayList<>();
         mDataset.clear();
+        mStreamedDirectories = 0;
+        mListed = false;
+        mOptions = getXiApplication().getListingOptions();
 
-        if (mFile != null) {
-            File[] files = mFile.listFiles();
-            if (files != null) {
-                int drawable;
-                for (File file : files) {
-                    if (file.isDirectory()) {
-                        if (file.canRead()) {
-                            drawable = R.drawable.ic_folder_grey_24dp;
-                        } else {
-                            drawable = R.drawable.ic_folder_open_grey_24dp;
-                        }
-                    } else {
-                        drawable = R.drawable.ic_file_grey_24dp;
-                    }
-                    mDataset.add(new FileItem(file.getName(), drawable));
-                }
-            }
+        if (mFile == null) {
+            mListed = true;
+            return;
+        }
+        List<FileItem> cached = getDirectoryCache().get(mFile);
+        if (cached != null) {
+            mListing = mLister.arrange(cached, mOptions, new ArrayList<FileItem>(), mListedCallback);
+        } else {
+            mListing = mLister.list(mFile, mOptions, new ArrayList<FileItem>(), mListedCallback);
         }
     }
 
+    private final DirectoryLister.Callback mListedCallback = new DirectoryLister.Callback() {
+        @Override
+        public void onEntries(List<FileItem> directories, List<FileItem> files) {
+            mDataset.addAll(mStreamedDirectories, directories);
+            mAdapter.notifyItemRangeInserted(mStreamedDirectories, directories.size());
+            mStreamedDirectories += directories.size();
+            int start = mDataset.size();
+            mDataset.addAll(files);
+            mAdapter.notifyItemRangeInserted(start, files.size());
+        }
+
+        @Override
+        public void onListed(List<FileItem> entries, List<FileItem> items,
+                             DiffUtil.DiffResult diff, long modified) {
+            mListing = null;
+            mListed = true;
+            mEntries = entries;
+            mDataset.clear();
+            mDataset.addAll(items);
+            if (diff != null) {
+                mAdapter.retainIds();
+                diff.dispatchUpdatesTo(mAdapter);
+            } else {
+                mAdapter.clearIds();
+                mAdapter.notifyDataSetChanged();
+            }
+            if (modified != -1) {
+                getDirectoryCache().put(mFile, entries, modified);
+            }
+        }
+    };
+
+    /**
+     * Lists the directory again, only the rows that changed are updated.
+     */
     public void notifyDataSetChanged() {
-        initDataset();
-        mAdapter.notifyDataSetChanged();
+        if (!mListed || mFile == null) {
+            initDataset();
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+        if (mListing != null) {
+            mListing.cancel();
+        }
+        mListing = mLister.list(mFile, mOptions, new ArrayList<>(mDataset), mListedCallback);
+    }
+
+    /**
+     * Shows file, which was just made in this directory, without listing it again.
+     */
+    public void notifyFileCreated(File file) {
+        if (!mListed || mListing != null) {
+            // the listing under way may or may not have it
+            notifyDataSetChanged();
+            return;
+        }
+        FileItem item = FileItem.fromFile(file);
+        getDirectoryCache().add(mFile, item);
+        List<FileItem> entries = new ArrayList<>(mEntries);
+        entries.add(item);
+        mListing = mLister.arrange(entries, mOptions, new ArrayList<>(mDataset), mListedCallback);
+    }
+
+    /**
+     * Sorts and filters entries as options say from now on.
+     */
+    public void setListingOptions(ListingOptions options) {
+        if (options.equals(mOptions)) {
+            return;
+        }
+        mOptions = options;
+        if (!mListed) {
+            // start over with the new options, dropping the entries shown so far
+            if (mListing != null) {
+                initDataset();
+                mAdapter.notifyDataSetChanged();
+            }
+            return;
+        }
+        if (mListing != null) {
+            mListing.cancel();
+        }
+        // everything may move, rows are all bound again
+        mListing = mLister.arrange(mEntries, mOptions, new ArrayList<FileItem>(), mListedCallback);
     }
 
     public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
         private List<FileItem> itemsData;
+        // Names are unique in a directory, each gets an id for as long as it is shown
+        private Map<String, Long> ids = new HashMap<>();
+        private long nextId = 0;
 
         public FileAdapter(List<FileItem> itemsData) {
             this.itemsData = itemsData;
+            setHasStableIds(true);
         }
 
         // Create new views (invoked by the layout manager)
@@ -229,20 +356,77 @@ public class ItemFragment extends Fragment {
         public int getItemCount() {
             return itemsData.size();
         }
+
+        @Override
+        public long getItemId(int position) {
+            String name = itemsData.get(position).name;
+            Long id = ids.get(name);
+            if (id == null) {
+                id = nextId++;
+                ids.put(name, id);
+            }
+            return id;
+        }
+
+        // Forgets the ids of names that aren't shown anymore
+        void retainIds() {
+            Map<String, Long> kept = new HashMap<>();
+            for (FileItem item : itemsData) {
+                Long id = ids.get(item.name);
+                if (id != null) {
+                    kept.put(item.name, id);
+                }
+            }
+            ids = kept;
+        }
+
+        // Before rows are all bound again, ids needn't match the old ones
+        void clearIds() {
+            ids.clear();
+        }
     }
 }
 
 class FileItem {
     public final String name;
     public final int drawable;
+    public final boolean directory;
+    public final long size;
+    public final long modified;
 
     public FileItem(String name, int drawable) {
+        this(name, drawable, false, 0, 0);
+    }
+
+    public FileItem(String name, int drawable, boolean directory, long size, long modified) {
         this.name = name;
         this.drawable = drawable;
+        this.directory = directory;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    /**
+     * Checks what file is, which hits the disk.
+     */
+    static FileItem fromFile(File file) {
+        int drawable;
+        boolean directory = file.isDirectory();
+        if (directory) {
+            if (file.canRead()) {
+                drawable = R.drawable.ic_folder_grey_24dp;
+            } else {
+                drawable = R.drawable.ic_folder_open_grey_24dp;
+            }
+        } else {
+            drawable = R.drawable.ic_file_grey_24dp;
+        }
+        return new FileItem(file.getName(), drawable, directory, directory ? 0 : file.length(),
+                file.lastModified());
     }
 
     @Override
     public String toString() {
         return name;
     }
-}
\ No newline at end of file
+}
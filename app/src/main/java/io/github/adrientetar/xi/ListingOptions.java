@@ -0,0 +1,155 @@
+package io.github.adrientetar.xi;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * How a directory is shown: the order of its entries, whether directories come first, and a
+ * glob or extension that files must match. Directories are never filtered out.
+ *
+ * Names are compared through collation keys made once per entry, comparing with the Collator
+ * directly would work out the same keys over and over while sorting.
+ */
+
+class ListingOptions {
+    enum Order {
+        NAME,
+        SIZE,
+        MODIFIED
+    }
+
+    static final ListingOptions DEFAULT = new ListingOptions(Order.NAME, true, null);
+
+    final Order order;
+    final boolean directoriesFirst;
+    final String filter;
+    private final Pattern pattern;
+
+    private static class Key {
+        final FileItem item;
+        final CollationKey name;
+
+        Key(FileItem item, CollationKey name) {
+            this.item = item;
+            this.name = name;
+        }
+    }
+
+    /**
+     * filter is a glob such as "*.txt", or an extension such as "txt", null for none.
+     */
+    ListingOptions(Order order, boolean directoriesFirst, String filter) {
+        this.order = order;
+        this.directoriesFirst = directoriesFirst;
+        this.filter = filter == null || filter.isEmpty() ? null : filter;
+        this.pattern = this.filter == null ? null : compile(this.filter);
+    }
+
+    ListingOptions withOrder(Order order) {
+        return new ListingOptions(order, this.directoriesFirst, this.filter);
+    }
+
+    ListingOptions withFilter(String filter) {
+        return new ListingOptions(this.order, this.directoriesFirst, filter);
+    }
+
+    private static Pattern compile(String filter) {
+        if (filter.indexOf('*') == -1 && filter.indexOf('?') == -1) {
+            filter = "*." + (filter.startsWith(".") ? filter.substring(1) : filter);
+        }
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < filter.length(); i++) {
+            char c = filter.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    /**
+     * Sorts names as apply() does in name order, which needs no entry to be checked.
+     */
+    static void sortNames(String[] names) {
+        Collator collator = Collator.getInstance(Locale.getDefault());
+        CollationKey[] keys = new CollationKey[names.length];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = collator.getCollationKey(names[i]);
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = keys[i].getSourceString();
+        }
+    }
+
+    boolean accepts(FileItem item) {
+        return this.pattern == null || item.directory || this.pattern.matcher(item.name).matches();
+    }
+
+    /**
+     * Returns the entries of items to show, in order. Meant for a background thread.
+     */
+    List<FileItem> apply(List<FileItem> items) {
+        Collator collator = Collator.getInstance(Locale.getDefault());
+        Key[] keys = new Key[items.size()];
+        int count = 0;
+        for (FileItem item : items) {
+            if (this.accepts(item)) {
+                keys[count++] = new Key(item, collator.getCollationKey(item.name));
+            }
+        }
+        Arrays.sort(keys, 0, count, new Comparator<Key>() {
+            @Override
+            public int compare(Key a, Key b) {
+                ListingOptions options = ListingOptions.this;
+                if (options.directoriesFirst && a.item.directory != b.item.directory) {
+                    return a.item.directory ? -1 : 1;
+                }
+                int result = 0;
+                if (options.order == Order.SIZE) {
+                    // largest first
+                    result = compareLongs(b.item.size, a.item.size);
+                } else if (options.order == Order.MODIFIED) {
+                    // newest first
+                    result = compareLongs(b.item.modified, a.item.modified);
+                }
+                return result != 0 ? result : a.name.compareTo(b.name);
+            }
+        });
+        List<FileItem> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(keys[i].item);
+        }
+        return result;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ListingOptions)) {
+            return false;
+        }
+        ListingOptions other = (ListingOptions) o;
+        return this.order == other.order && this.directoriesFirst == other.directoriesFirst &&
+                (this.filter == null ? other.filter == null : this.filter.equals(other.filter));
+    }
+
+    @Override
+    public int hashCode() {
+        return (this.order.hashCode() * 31 + (this.directoriesFirst ? 1 : 0)) * 31 +
+                (this.filter == null ? 0 : this.filter.hashCode());
+    }
+}
@@ -18,6 +18,7 @@ import io.github.adrientetar.xi.widgets.XiView;
 public class MainActivity extends AppCompatActivity {
     private XiBridge bridge;
     private String filename;
+    private boolean destroyed = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -33,11 +34,21 @@ public class MainActivity extends AppCompatActivity {
             this.filename = null;
         }
 
-        this.bridge = new XiBridge(this);
-        this.bridge.sendNewTab(new XiBridge.ResponseHandler() {
+        // am start ... --ez full_invalidation true, to compare frame costs
+        XiView editor = (XiView) findViewById(R.id.view);
+        editor.setPartialInvalidation(!intent.getBooleanExtra("full_invalidation", false));
+
+        XiApplication app = (XiApplication) this.getApplication();
+        this.bridge = app.getBridge();
+        app.requestTab(new XiBridge.ResponseHandler() {
             @Override
             public void invoke(Object result) {
                 String tab = (String) result;
+                if (MainActivity.this.destroyed) {
+                    // nothing will close it, don't let it keep xi-core around
+                    MainActivity.this.bridge.sendDeleteTab(tab);
+                    return;
+                }
                 XiView view = (XiView) findViewById(R.id.view);
                 view.activateBridge(bridge, tab);
                 //
@@ -134,6 +145,22 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        this.destroyed = true;
+        XiView view = (XiView) findViewById(R.id.view);
+        String tab = view.getTab();
+        if (tab != null) {
+            view.deactivateBridge();
+            this.bridge.sendDeleteTab(tab);
+        }
+        if (this.bridge.getLatencyTracer().isEnabled()) {
+            Log.v("Xi", "Input latency:\n" + this.bridge.getLatencyTracer().dump());
+            Log.v("Xi", "Drawing: " + view.getDrawStats());
+        }
+        super.onDestroy();
+    }
+
     @SuppressWarnings("unused")
     public void onShowKeyboard(int height) {
         ActionBar actionBar = this.getSupportActionBar();
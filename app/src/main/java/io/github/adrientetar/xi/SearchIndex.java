@@ -0,0 +1,402 @@
+package io.github.adrientetar.xi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Paths under a root directory, looked up by fuzzy file name.
+ *
+ * Names are split into trigrams, and a query matches the names that share at least half of
+ * its trigrams, so that a typo or two still finds the file. Paths are relative to the root
+ * with '/' separators, the root itself being "". Directories also keep their mtime and the
+ * names in them, so that an update only lists the directories that changed.
+ *
+ * On disk, paths are sorted and front-coded, the trigrams are made again when loading. Reading
+ * and writing only hold the index to copy or swap its contents, not while doing I/O.
+ */
+
+class SearchIndex {
+    static final byte[] MAGIC = {'x', 'i', 'i', 'd', 'x', 1};
+
+    // By id, null once removed
+    private List<String> paths = new ArrayList<>();
+    // Lower case names by id, what queries are matched against
+    private List<String> names = new ArrayList<>();
+    private Map<String, Integer> ids = new HashMap<>();
+    private Map<Long, Postings> trigrams = new HashMap<>();
+    private Map<String, Directory> directories = new HashMap<>();
+    private int removed = 0;
+    // Reused across queries, zeroed after each
+    private int[] counts = new int[0];
+
+    static class Directory {
+        final long modified;
+        final String[] names;
+
+        Directory(long modified, String[] names) {
+            this.modified = modified;
+            this.names = names;
+        }
+    }
+
+    private static class Postings {
+        // Increasing ids, some of which may be removed
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            this.ids[this.size++] = id;
+        }
+    }
+
+    private static class Match {
+        final int id;
+        final int score;
+        final int length;
+
+        Match(int id, int score, int length) {
+            this.id = id;
+            this.score = score;
+            this.length = length;
+        }
+    }
+
+    static String child(String directory, String name) {
+        return directory.isEmpty() ? name : directory + "/" + name;
+    }
+
+    static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    // Of a lower case name
+    private static long[] trigrams(String lower) {
+        Set<Long> set = new HashSet<>();
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            set.add(((long) lower.charAt(i) << 32) | ((long) lower.charAt(i + 1) << 16) |
+                    lower.charAt(i + 2));
+        }
+        long[] trigrams = new long[set.size()];
+        int i = 0;
+        for (long trigram : set) {
+            trigrams[i++] = trigram;
+        }
+        return trigrams;
+    }
+
+    synchronized int size() {
+        return this.ids.size();
+    }
+
+    synchronized boolean contains(String path) {
+        return this.ids.containsKey(path);
+    }
+
+    /**
+     * Adds path, if it isn't there already.
+     */
+    synchronized void add(String path) {
+        if (path.isEmpty() || this.ids.containsKey(path)) {
+            return;
+        }
+        int id = this.paths.size();
+        String name = name(path).toLowerCase(Locale.ROOT);
+        this.paths.add(path);
+        this.names.add(name);
+        this.ids.put(path, id);
+        for (long trigram : trigrams(name)) {
+            Postings postings = this.trigrams.get(trigram);
+            if (postings == null) {
+                postings = new Postings();
+                this.trigrams.put(trigram, postings);
+            }
+            postings.add(id);
+        }
+    }
+
+    /**
+     * Removes path, and everything under it if it is a directory.
+     */
+    synchronized void remove(String path) {
+        Directory directory = this.directories.remove(path);
+        if (directory != null) {
+            for (String name : directory.names) {
+                this.remove(child(path, name));
+            }
+        }
+        Integer id = this.ids.remove(path);
+        if (id == null) {
+            return;
+        }
+        this.paths.set(id, null);
+        this.names.set(id, null);
+        this.removed += 1;
+        if (this.removed > this.ids.size()) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Returns a copy of the directories, for walking the tree without holding the index.
+     */
+    synchronized Map<String, Directory> getDirectories() {
+        return new HashMap<>(this.directories);
+    }
+
+    /**
+     * Records the names that were listed in directory at modified, adding and removing paths
+     * to match.
+     */
+    synchronized void setDirectory(String path, long modified, String[] names) {
+        Directory previous = this.directories.get(path);
+        if (previous != null) {
+            Set<String> kept = new HashSet<>(Arrays.asList(names));
+            for (String name : previous.names) {
+                if (!kept.contains(name)) {
+                    this.remove(child(path, name));
+                }
+            }
+        }
+        this.directories.put(path, new Directory(modified, names));
+        for (String name : names) {
+            this.add(child(path, name));
+        }
+    }
+
+    /**
+     * Returns up to limit paths whose name is close to query, best first.
+     */
+    synchronized List<String> search(String query, int limit) {
+        String lower = query.toLowerCase(Locale.ROOT);
+        if (lower.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<Match> best = new PriorityQueue<>(limit, new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                return a.score != b.score ? (a.score < b.score ? -1 : 1) : b.length - a.length;
+            }
+        });
+
+        long[] trigrams = trigrams(lower);
+        if (trigrams.length == 0) {
+            // too short for trigrams, look at every name
+            for (int id = 0; id < this.names.size(); id++) {
+                if (this.names.get(id) != null) {
+                    this.offer(best, limit, id, lower, 0);
+                }
+            }
+        } else {
+            if (this.counts.length < this.paths.size()) {
+                this.counts = new int[this.paths.size()];
+            }
+            List<Postings> lists = new ArrayList<>(trigrams.length);
+            for (long trigram : trigrams) {
+                Postings postings = this.trigrams.get(trigram);
+                if (postings != null) {
+                    lists.add(postings);
+                }
+            }
+            int threshold = (trigrams.length + 1) / 2;
+            for (Postings postings : lists) {
+                for (int i = 0; i < postings.size; i++) {
+                    this.counts[postings.ids[i]] += 1;
+                }
+            }
+            for (Postings postings : lists) {
+                for (int i = 0; i < postings.size; i++) {
+                    int id = postings.ids[i];
+                    int count = this.counts[id];
+                    if (count == 0) {
+                        continue;
+                    }
+                    this.counts[id] = 0;
+                    if (count >= threshold && this.names.get(id) != null) {
+                        this.offer(best, limit, id, lower, count);
+                    }
+                }
+            }
+        }
+
+        String[] results = new String[best.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            results[i] = this.paths.get(best.poll().id);
+        }
+        return Arrays.asList(results);
+    }
+
+    private void offer(PriorityQueue<Match> best, int limit, int id, String query, int count) {
+        String name = this.names.get(id);
+        int index = name.indexOf(query);
+        if (count == 0 && index == -1) {
+            return;
+        }
+        // trigrams in common first, then the whole query in the name, at its start best
+        int score = count * 4 + (index == 0 ? 3 : index != -1 ? 2 : 0);
+        if (best.size() == limit) {
+            Match worst = best.peek();
+            if (score < worst.score || score == worst.score && name.length() >= worst.length) {
+                return;
+            }
+            best.poll();
+        }
+        best.add(new Match(id, score, name.length()));
+    }
+
+    private void compact() {
+        List<String> paths = new ArrayList<>(this.ids.keySet());
+        this.paths.clear();
+        this.names.clear();
+        this.ids.clear();
+        this.trigrams.clear();
+        this.removed = 0;
+        for (String path : paths) {
+            this.add(path);
+        }
+    }
+
+    synchronized void clear() {
+        this.paths.clear();
+        this.names.clear();
+        this.ids.clear();
+        this.trigrams.clear();
+        this.directories.clear();
+        this.removed = 0;
+    }
+
+    void write(OutputStream stream) throws IOException {
+        String[] paths;
+        TreeMap<String, Directory> directories;
+        synchronized (this) {
+            paths = this.ids.keySet().toArray(new String[this.ids.size()]);
+            directories = new TreeMap<>(this.directories);
+        }
+        Arrays.sort(paths);
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        writeVarint(out, paths.length);
+        String previous = "";
+        for (String path : paths) {
+            writeFrontCoded(out, previous, path);
+            previous = path;
+        }
+
+        writeVarint(out, directories.size());
+        previous = "";
+        for (Map.Entry<String, Directory> entry : directories.entrySet()) {
+            writeFrontCoded(out, previous, entry.getKey());
+            writeVarint(out, entry.getValue().modified);
+            previous = entry.getKey();
+        }
+        out.flush();
+    }
+
+    /**
+     * Replaces the contents with what {@link #write} wrote.
+     */
+    void read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a search index");
+        }
+
+        // Searches go on with the old contents meanwhile
+        SearchIndex loaded = new SearchIndex();
+        Map<String, List<String>> names = new HashMap<>();
+        int count = (int) readVarint(in);
+        String path = "";
+        for (int i = 0; i < count; i++) {
+            path = readFrontCoded(in, path);
+            loaded.add(path);
+            int slash = path.lastIndexOf('/');
+            String parent = slash == -1 ? "" : path.substring(0, slash);
+            List<String> list = names.get(parent);
+            if (list == null) {
+                list = new ArrayList<>();
+                names.put(parent, list);
+            }
+            list.add(path.substring(slash + 1));
+        }
+
+        count = (int) readVarint(in);
+        path = "";
+        for (int i = 0; i < count; i++) {
+            path = readFrontCoded(in, path);
+            long modified = readVarint(in);
+            List<String> list = names.get(path);
+            String[] array = list == null ? new String[0] : list.toArray(new String[list.size()]);
+            loaded.directories.put(path, new Directory(modified, array));
+        }
+        this.replace(loaded);
+    }
+
+    // other isn't shared, so its contents can be taken over as they are
+    private synchronized void replace(SearchIndex other) {
+        this.paths = other.paths;
+        this.names = other.names;
+        this.ids = other.ids;
+        this.trigrams = other.trigrams;
+        this.directories = other.directories;
+        this.removed = other.removed;
+    }
+
+    private static void writeFrontCoded(DataOutputStream out, String previous, String path)
+            throws IOException {
+        int shared = 0;
+        int max = Math.min(previous.length(), path.length());
+        while (shared < max && previous.charAt(shared) == path.charAt(shared)) {
+            shared++;
+        }
+        writeVarint(out, shared);
+        out.writeUTF(path.substring(shared));
+    }
+
+    private static String readFrontCoded(DataInputStream in, String previous) throws IOException {
+        int shared = (int) readVarint(in);
+        if (shared > previous.length()) {
+            throw new IOException("Corrupt search index");
+        }
+        return previous.substring(0, shared) + in.readUTF();
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt search index");
+    }
+}
@@ -0,0 +1,255 @@
+package io.github.adrientetar.xi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a {@link SearchIndex} of the files under root up to date, and saved in store.
+ *
+ * Updates walk the tree with a task per directory over a few threads. A directory whose mtime
+ * is the one recorded has the same names in it, so it is not listed again and only its
+ * subdirectories are walked. Links to directories are not followed, one to an ancestor
+ * would have the walk go round forever.
+ */
+
+class SearchIndexer {
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final File root;
+    private final File store;
+    private final SearchIndex index = new SearchIndex();
+    private final AtomicBoolean updating = new AtomicBoolean(false);
+    private boolean loaded = false;
+
+    // What a walk found in a directory that changed
+    private static class Listing {
+        final String path;
+        final long modified;
+        final String[] names;
+
+        Listing(String path, long modified, String[] names) {
+            this.path = path;
+            this.modified = modified;
+            this.names = names;
+        }
+    }
+
+    SearchIndexer(File root, File store) {
+        this.root = root;
+        this.store = store;
+    }
+
+    SearchIndex getIndex() {
+        return this.index;
+    }
+
+    List<String> search(String query, int limit) {
+        return this.index.search(query, limit);
+    }
+
+    File getFile(String path) {
+        return path.isEmpty() ? this.root : new File(this.root, path);
+    }
+
+    /**
+     * Adds file, which was just made under root, without waiting for the next update.
+     */
+    void add(File file) {
+        String root = this.root.getPath();
+        String path = file.getPath();
+        if (path.startsWith(root + File.separator)) {
+            this.index.add(path.substring(root.length() + 1).replace(File.separatorChar, '/'));
+        }
+    }
+
+    /**
+     * Updates the index in the background, unless an update is already under way.
+     */
+    void update() {
+        if (!this.updating.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread("XiIndex") {
+            @Override
+            public void run() {
+                try {
+                    SearchIndexer.this.updateNow();
+                } finally {
+                    SearchIndexer.this.updating.set(false);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Loads the index if not done yet, walks the tree and saves the index if anything changed.
+     */
+    void updateNow() {
+        if (!this.loaded) {
+            this.load();
+            this.loaded = true;
+        }
+        try {
+            if (this.walk() > 0) {
+                this.save();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns how many directories had to be listed.
+     */
+    int walk() throws InterruptedException {
+        final Map<String, SearchIndex.Directory> known = this.index.getDirectories();
+        final Queue<Listing> listings = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pending = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "XiIndex-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        class Visit implements Runnable {
+            private final String path;
+
+            Visit(String path) {
+                this.path = path;
+            }
+
+            void submit() {
+                pending.incrementAndGet();
+                executor.execute(this);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    this.visit();
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            }
+
+            private void visit() {
+                File directory = SearchIndexer.this.getFile(this.path);
+                long modified = directory.lastModified();
+                SearchIndex.Directory previous = known.get(this.path);
+                if (previous != null && previous.modified == modified) {
+                    for (String name : previous.names) {
+                        String child = SearchIndex.child(this.path, name);
+                        if (known.containsKey(child)) {
+                            new Visit(child).submit();
+                        }
+                    }
+                    return;
+                }
+                String[] names = directory.list();
+                if (names == null) {
+                    names = new String[0];
+                }
+                listings.add(new Listing(this.path, modified, names));
+                File canonical;
+                try {
+                    canonical = directory.getCanonicalFile();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                for (String name : names) {
+                    File child = new File(canonical, name);
+                    if (child.isDirectory() && !isLink(child)) {
+                        new Visit(SearchIndex.child(this.path, name)).submit();
+                    }
+                }
+            }
+        }
+
+        try {
+            new Visit("").submit();
+            done.await();
+        } finally {
+            executor.shutdownNow();
+        }
+        int count = 0;
+        for (Listing listing : listings) {
+            this.index.setDirectory(listing.path, listing.modified, listing.names);
+            count++;
+        }
+        return count;
+    }
+
+    // Of a file in a directory given by its canonical path
+    private static boolean isLink(File file) {
+        try {
+            return !file.getCanonicalPath().equals(file.getPath());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void load() {
+        if (!this.store.exists()) {
+            return;
+        }
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(this.store));
+            try {
+                this.index.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            // start over from an empty index
+            this.index.clear();
+        }
+    }
+
+    private void save() {
+        File temp = new File(this.store.getPath() + ".tmp");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                this.index.write(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(this.store)) {
+                throw new IOException("Couldn't rename " + temp);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.adrientetar.xi;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+
+import io.github.adrientetar.xi.objects.XiBridge;
+
+/**
+ * Owns the xi-core process, which is shared by all editors.
+ *
+ * The browser can start it ahead of time with {@link #prewarm()}, so that opening a file only
+ * needs a tab. A spare tab is made along, and handed to the next editor asking for one.
+ * Listings of the directories browsed are kept here too, so that they outlive the browser,
+ * along with how they are sorted and the index of the files the browser can search.
+ */
+
+public class XiApplication extends Application {
+    private XiBridge bridge = null;
+    private final Object lock = new Object();
+    private Handler handler;
+    // Tab made ahead of time, and an editor waiting on it
+    private String spareTab = null;
+    private boolean spareRequested = false;
+    private XiBridge.ResponseHandler spareHandler = null;
+    // Whether a thread is spawning xi-core ahead of time, only used from the main thread
+    private boolean prewarming = false;
+    private final DirectoryCache directoryCache = new DirectoryCache();
+    private SearchIndexer searchIndexer;
+    private ListingOptions listingOptions = ListingOptions.DEFAULT;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.searchIndexer = new SearchIndexer(this.getFilesDir(),
+                new File(this.getCacheDir(), "search.idx"));
+    }
+
+    /**
+     * Returns the bridge, spawning xi-core if it isn't running yet.
+     */
+    public XiBridge getBridge() {
+        synchronized (this.lock) {
+            if (this.bridge == null) {
+                this.bridge = new XiBridge(this);
+                this.bridge.getLatencyTracer().setEnabled(BuildConfig.DEBUG);
+                Log.v("Xi", "Spawned xi-core in " + this.bridge.getSpawnTime() / 1000000 + " ms.");
+            }
+            return this.bridge;
+        }
+    }
+
+    /**
+     * Spawns xi-core in the background and makes a spare tab, unless already done.
+     */
+    public void prewarm() {
+        if (this.prewarming) {
+            return;
+        }
+        synchronized (this.lock) {
+            if (this.bridge != null) {
+                // warm already, at most a spare tab is missing
+                this.makeSpareTab();
+                return;
+            }
+        }
+        this.prewarming = true;
+        new Thread("XiPrewarm") {
+            @Override
+            public void run() {
+                XiApplication.this.getBridge();
+                XiApplication.this.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        XiApplication.this.prewarming = false;
+                        XiApplication.this.makeSpareTab();
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private void makeSpareTab() {
+        if (this.spareTab != null || this.spareRequested) {
+            return;
+        }
+        this.spareRequested = true;
+        this.getBridge().sendNewTab(new XiBridge.TimeoutHandler() {
+            @Override
+            public void invoke(Object result) {
+                XiApplication app = XiApplication.this;
+                app.spareRequested = false;
+                if (app.spareHandler != null) {
+                    XiBridge.ResponseHandler handler = app.spareHandler;
+                    app.spareHandler = null;
+                    handler.invoke(result);
+                } else {
+                    app.spareTab = (String) result;
+                }
+            }
+
+            @Override
+            public void onTimeout() {
+                XiApplication app = XiApplication.this;
+                app.spareRequested = false;
+                if (app.spareHandler != null) {
+                    // ask again on behalf of the editor waiting for it
+                    XiBridge.ResponseHandler handler = app.spareHandler;
+                    app.spareHandler = null;
+                    app.getBridge().sendNewTab(handler);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands a tab to handler, the spare one if there is one.
+     */
+    public void requestTab(XiBridge.ResponseHandler handler) {
+        XiBridge bridge = this.getBridge();
+        if (this.spareTab != null) {
+            String tab = this.spareTab;
+            this.spareTab = null;
+            handler.invoke(tab);
+        } else if (this.spareRequested && this.spareHandler == null) {
+            this.spareHandler = handler;
+        } else {
+            bridge.sendNewTab(handler);
+        }
+    }
+
+    DirectoryCache getDirectoryCache() {
+        return this.directoryCache;
+    }
+
+    SearchIndexer getSearchIndexer() {
+        return this.searchIndexer;
+    }
+
+    ListingOptions getListingOptions() {
+        return this.listingOptions;
+    }
+
+    void setListingOptions(ListingOptions options) {
+        this.listingOptions = options;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (level < ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return;
+        }
+        this.directoryCache.clear();
+        synchronized (this.lock) {
+            // nothing is open, let the process go until it is needed again
+            if (this.bridge != null && !this.bridge.hasTabs() && !this.spareRequested &&
+                    this.spareHandler == null) {
+                this.bridge.close();
+                this.bridge = null;
+                this.spareTab = null;
+            }
+        }
+    }
+}
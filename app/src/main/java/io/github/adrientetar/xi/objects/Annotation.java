@@ -0,0 +1,18 @@
+package io.github.adrientetar.xi.objects;
+
+/**
+ * Annotation kinds and font style flags used by xi-core in rendered lines.
+ *
+ * Annotations themselves are stored packed in {@link Line}.
+ */
+
+public final class Annotation {
+    public static final int FG = 0;
+    public static final int SEL = 1;
+
+    public static final int STYLE_BOLD = 1;
+    public static final int STYLE_UNDERLINE = 2;
+    public static final int STYLE_ITALIC = 4;
+
+    private Annotation() {}
+}
@@ -0,0 +1,496 @@
+package io.github.adrientetar.xi.objects;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull parser for the newline-delimited JSON stream spoken by xi-core.
+ *
+ * UTF-8 is decoded straight off the byte stream into reused buffers, so there is no
+ * intermediate line String nor DOM. The API is modeled after android.util.JsonReader, with
+ * top-level values allowed to follow each other.
+ */
+
+class JsonPullParser {
+    static final int BEGIN_ARRAY = 1;
+    static final int END_ARRAY = 2;
+    static final int BEGIN_OBJECT = 3;
+    static final int END_OBJECT = 4;
+    static final int NAME = 5;
+    static final int STRING = 6;
+    static final int NUMBER = 7;
+    static final int BOOLEAN = 8;
+    static final int NULL = 9;
+    static final int END_DOCUMENT = 10;
+
+    private static final int SCOPE_DOCUMENT = 0;
+    private static final int SCOPE_EMPTY_ARRAY = 1;
+    private static final int SCOPE_ARRAY = 2;
+    private static final int SCOPE_EMPTY_OBJECT = 3;
+    private static final int SCOPE_DANGLING_NAME = 4;
+    private static final int SCOPE_OBJECT = 5;
+
+    // Keys and tags of the xi-core protocol, returned without allocating
+    private static final String[] NAMES = {
+            "id", "result", "error", "method", "params", "tab", "update",
+            "first_line", "height", "lines", "scrollto", "cursor", "fg", "sel",
+    };
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+    private int[] stack = new int[32];
+    private int depth = 1;
+    private int peeked = 0;
+    private char[] chars = new char[256];
+    private int charsLength = 0;
+
+    JsonPullParser(InputStream in) {
+        this(in, 8192);
+    }
+
+    JsonPullParser(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+        this.stack[0] = SCOPE_DOCUMENT;
+    }
+
+    /* Tokens */
+
+    int peek() throws IOException, JSONException {
+        if (this.peeked != 0) {
+            return this.peeked;
+        }
+        int scope = this.stack[this.depth - 1];
+        int c;
+        switch (scope) {
+            case SCOPE_EMPTY_ARRAY:
+                this.stack[this.depth - 1] = SCOPE_ARRAY;
+                break;
+            case SCOPE_ARRAY:
+                c = this.nextNonWhitespace();
+                if (c == ']') {
+                    return this.peeked = END_ARRAY;
+                } else if (c != ',') {
+                    throw this.syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_OBJECT:
+                this.stack[this.depth - 1] = SCOPE_DANGLING_NAME;
+                if (scope == SCOPE_OBJECT) {
+                    c = this.nextNonWhitespace();
+                    if (c == '}') {
+                        return this.peeked = END_OBJECT;
+                    } else if (c != ',') {
+                        throw this.syntaxError("Expected ',' or '}'");
+                    }
+                }
+                c = this.nextNonWhitespace();
+                if (c == '"') {
+                    return this.peeked = NAME;
+                } else if (c == '}' && scope == SCOPE_EMPTY_OBJECT) {
+                    return this.peeked = END_OBJECT;
+                }
+                throw this.syntaxError("Expected name");
+            case SCOPE_DANGLING_NAME:
+                this.stack[this.depth - 1] = SCOPE_OBJECT;
+                if (this.nextNonWhitespace() != ':') {
+                    throw this.syntaxError("Expected ':'");
+                }
+                break;
+        }
+
+        c = this.nextNonWhitespace();
+        switch (c) {
+            case -1:
+                if (scope == SCOPE_DOCUMENT) {
+                    return this.peeked = END_DOCUMENT;
+                }
+                throw new EOFException("End of input inside a value");
+            case ']':
+                if (scope == SCOPE_EMPTY_ARRAY) {
+                    return this.peeked = END_ARRAY;
+                }
+                throw this.syntaxError("Unexpected ']'");
+            case '[':
+                return this.peeked = BEGIN_ARRAY;
+            case '{':
+                return this.peeked = BEGIN_OBJECT;
+            case '"':
+                return this.peeked = STRING;
+            case 't':
+            case 'f':
+                this.pos--;
+                return this.peeked = BOOLEAN;
+            case 'n':
+                this.pos--;
+                return this.peeked = NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    this.pos--;
+                    return this.peeked = NUMBER;
+                }
+                throw this.syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    boolean hasNext() throws IOException, JSONException {
+        int p = this.peek();
+        return p != END_ARRAY && p != END_OBJECT && p != END_DOCUMENT;
+    }
+
+    void beginArray() throws IOException, JSONException {
+        this.expect(BEGIN_ARRAY);
+        this.push(SCOPE_EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException, JSONException {
+        this.expect(END_ARRAY);
+        this.depth--;
+    }
+
+    void beginObject() throws IOException, JSONException {
+        this.expect(BEGIN_OBJECT);
+        this.push(SCOPE_EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException, JSONException {
+        this.expect(END_OBJECT);
+        this.depth--;
+    }
+
+    String nextName() throws IOException, JSONException {
+        this.expect(NAME);
+        this.readString();
+        return this.symbol();
+    }
+
+    /**
+     * Like nextString(), but doesn't allocate for protocol keywords.
+     */
+    String nextSymbol() throws IOException, JSONException {
+        this.expect(STRING);
+        this.readString();
+        return this.symbol();
+    }
+
+    String nextString() throws IOException, JSONException {
+        int p = this.peek();
+        if (p == STRING) {
+            this.peeked = 0;
+            this.readString();
+        } else if (p == NUMBER) {
+            this.peeked = 0;
+            this.readNumber();
+        } else {
+            throw this.syntaxError("Expected a string");
+        }
+        return new String(this.chars, 0, this.charsLength);
+    }
+
+    int nextInt() throws IOException, JSONException {
+        int p = this.peek();
+        if (p == STRING) {
+            this.peeked = 0;
+            this.readString();
+        } else if (p == NUMBER) {
+            this.peeked = 0;
+            this.readNumber();
+        } else {
+            throw this.syntaxError("Expected an int");
+        }
+        long value = this.parseLong();
+        if (value == Long.MIN_VALUE) {
+            try {
+                return (int) Double.parseDouble(new String(this.chars, 0, this.charsLength));
+            } catch (NumberFormatException e) {
+                throw this.syntaxError("Expected an int");
+            }
+        }
+        // truncate like org.json's getInt(), xi-core sends colors as unsigned ints
+        return (int) value;
+    }
+
+    /**
+     * Returns the next number boxed in the narrowest of Integer, Long and Double.
+     */
+    Number nextNumber() throws IOException, JSONException {
+        this.expect(NUMBER);
+        this.readNumber();
+        long value = this.parseLong();
+        if (value == Long.MIN_VALUE) {
+            return Double.valueOf(new String(this.chars, 0, this.charsLength));
+        } else if (value == (int) value) {
+            return (int) value;
+        }
+        return value;
+    }
+
+    boolean nextBoolean() throws IOException, JSONException {
+        this.expect(BOOLEAN);
+        if (this.read() == 't') {
+            this.expectLiteral("rue");
+            return true;
+        }
+        this.expectLiteral("alse");
+        return false;
+    }
+
+    void nextNull() throws IOException, JSONException {
+        this.expect(NULL);
+        this.expectLiteral("null");
+    }
+
+    void skipValue() throws IOException, JSONException {
+        int count = 0;
+        do {
+            switch (this.peek()) {
+                case BEGIN_ARRAY:
+                    this.beginArray();
+                    count++;
+                    break;
+                case BEGIN_OBJECT:
+                    this.beginObject();
+                    count++;
+                    break;
+                case END_ARRAY:
+                    this.endArray();
+                    count--;
+                    break;
+                case END_OBJECT:
+                    this.endObject();
+                    count--;
+                    break;
+                case NAME:
+                case STRING:
+                    this.peeked = 0;
+                    this.readString();
+                    break;
+                case NUMBER:
+                    this.peeked = 0;
+                    this.readNumber();
+                    break;
+                case BOOLEAN:
+                    this.nextBoolean();
+                    break;
+                case NULL:
+                    this.nextNull();
+                    break;
+                case END_DOCUMENT:
+                    throw new EOFException("End of input inside a value");
+            }
+        } while (count != 0);
+    }
+
+    /**
+     * Drops parser state and skips to the next line, so that one malformed message doesn't
+     * take down the rest of the stream.
+     */
+    void recover() throws IOException {
+        this.depth = 1;
+        this.peeked = 0;
+        int c;
+        do {
+            c = this.read();
+        } while (c != -1 && c != '\n');
+    }
+
+    /* Internals */
+
+    private void expect(int token) throws IOException, JSONException {
+        if (this.peek() != token) {
+            throw this.syntaxError("Unexpected token " + this.peeked + ", wanted " + token);
+        }
+        this.peeked = 0;
+    }
+
+    private void push(int scope) {
+        if (this.depth == this.stack.length) {
+            int[] stack = new int[this.depth * 2];
+            System.arraycopy(this.stack, 0, stack, 0, this.depth);
+            this.stack = stack;
+        }
+        this.stack[this.depth++] = scope;
+    }
+
+    private int read() throws IOException {
+        if (this.pos == this.limit) {
+            int count = this.in.read(this.buffer, 0, this.buffer.length);
+            if (count <= 0) {
+                return -1;
+            }
+            this.pos = 0;
+            this.limit = count;
+        }
+        return this.buffer[this.pos++] & 0xff;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = this.read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private void expectLiteral(String literal) throws IOException, JSONException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (this.read() != literal.charAt(i)) {
+                throw this.syntaxError("Expected literal " + literal);
+            }
+        }
+    }
+
+    private void append(char c) {
+        if (this.charsLength == this.chars.length) {
+            char[] chars = new char[this.charsLength * 2];
+            System.arraycopy(this.chars, 0, chars, 0, this.charsLength);
+            this.chars = chars;
+        }
+        this.chars[this.charsLength++] = c;
+    }
+
+    private String symbol() {
+        for (String name : NAMES) {
+            if (this.charsEqual(name)) {
+                return name;
+            }
+        }
+        return new String(this.chars, 0, this.charsLength);
+    }
+
+    private boolean charsEqual(String s) {
+        if (s.length() != this.charsLength) {
+            return false;
+        }
+        for (int i = 0; i < this.charsLength; i++) {
+            if (s.charAt(i) != this.chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads the body of a string whose opening quote was consumed by peek().
+    private void readString() throws IOException, JSONException {
+        this.charsLength = 0;
+        while (true) {
+            int c = this.read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                this.readEscape();
+            } else if (c < 0x80) {
+                if (c == -1) {
+                    throw new EOFException("End of input inside a string");
+                }
+                this.append((char) c);
+            } else if (c < 0xe0) {
+                this.append((char) (((c & 0x1f) << 6) | this.continuation()));
+            } else if (c < 0xf0) {
+                int b = this.continuation();
+                this.append((char) (((c & 0x0f) << 12) | (b << 6) | this.continuation()));
+            } else {
+                int b1 = this.continuation();
+                int b2 = this.continuation();
+                int codePoint = ((c & 0x07) << 18) | (b1 << 12) | (b2 << 6) | this.continuation();
+                this.append((char) (0xd7c0 + (codePoint >>> 10)));
+                this.append((char) (0xdc00 + (codePoint & 0x3ff)));
+            }
+        }
+    }
+
+    private int continuation() throws IOException, JSONException {
+        int c = this.read();
+        if ((c & 0xc0) != 0x80) {
+            throw this.syntaxError("Malformed UTF-8");
+        }
+        return c & 0x3f;
+    }
+
+    private void readEscape() throws IOException, JSONException {
+        int c = this.read();
+        switch (c) {
+            case 'b':
+                this.append('\b');
+                break;
+            case 'f':
+                this.append('\f');
+                break;
+            case 'n':
+                this.append('\n');
+                break;
+            case 'r':
+                this.append('\r');
+                break;
+            case 't':
+                this.append('\t');
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(this.read(), 16);
+                    if (digit == -1) {
+                        throw this.syntaxError("Malformed \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                this.append((char) value);
+                break;
+            case -1:
+                throw new EOFException("End of input inside a string");
+            default:
+                this.append((char) c);
+        }
+    }
+
+    private void readNumber() throws IOException {
+        this.charsLength = 0;
+        while (true) {
+            if (this.pos == this.limit && this.read() != -1) {
+                this.pos--;
+            }
+            if (this.pos == this.limit) {
+                return;
+            }
+            int c = this.buffer[this.pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                this.append((char) c);
+                this.pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Parses the number in chars without allocating; Long.MIN_VALUE when not integral.
+    private long parseLong() {
+        int i = 0;
+        boolean negative = false;
+        if (this.charsLength > 0 && this.chars[0] == '-') {
+            negative = true;
+            i = 1;
+        }
+        if (i == this.charsLength || this.charsLength - i > 18) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; i < this.charsLength; i++) {
+            char c = this.chars[i];
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at depth " + this.depth);
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of latencies in log-linear buckets, which any thread can record into without locking.
+ *
+ * Values below 16 have a bucket each, above that each power of two is split in 16 buckets,
+ * so percentiles are at most 1/16 over the recorded values.
+ */
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Returns the highest value that falls in bucket index.
+     */
+    static long highest(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        this.counts.incrementAndGet(index(value));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the value percentile percent of recorded values are at or below, 0 if empty.
+     *
+     * Recording may go on meanwhile, the result is then close but not exact.
+     */
+    public long getPercentile(double percentile) {
+        long count = this.getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return highest(i);
+            }
+        }
+        return highest(this.counts.length() - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.counts.length(); i++) {
+            this.counts.set(i, 0);
+        }
+    }
+}
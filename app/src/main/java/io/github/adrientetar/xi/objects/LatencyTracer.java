@@ -0,0 +1,128 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Follows input events through the stages it takes until they are on screen, and keeps a
+ * histogram of the time spent in each, in microseconds.
+ *
+ * xi-core updates don't say which input they are for, so one event is traced at a time and
+ * the next update is taken as its result; events coming in meanwhile are not traced. While
+ * disabled a mark costs a volatile read.
+ */
+
+public class LatencyTracer {
+    public static final int INPUT = 0;
+    // The writer flushed the message out to xi-core
+    public static final int SENT = 1;
+    // The watcher decoded an update
+    public static final int RECEIVED = 2;
+    // The main thread got the update
+    public static final int DISPATCHED = 3;
+    // The view picked the lines that changed
+    public static final int UPDATED = 4;
+    public static final int LAID_OUT = 5;
+    public static final int DRAWN = 6;
+    // From input to drawn
+    public static final int TOTAL = 7;
+    private static final String[] NAMES = {
+            "input", "sent", "received", "dispatched", "updated", "laid out", "drawn", "total"};
+    private static final int IDLE = -1;
+    // An event that got nowhere in this long (in ns), say a key that changed nothing, is dropped
+    private static final long STALE = 1000000000L;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[TOTAL + 1];
+    // The stage the traced event is expected at next
+    private final AtomicInteger next = new AtomicInteger(IDLE);
+    private final long[] times = new long[DRAWN + 1];
+    private volatile boolean enabled = false;
+    private long dropped = 0;
+
+    public LatencyTracer() {
+        for (int i = SENT; i <= TOTAL; i++) {
+            this.histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            this.next.set(IDLE);
+        }
+    }
+
+    /**
+     * Starts tracing an input event, unless one is traced already. Only used from the main
+     * thread.
+     */
+    public void input() {
+        if (!this.enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (this.next.get() != IDLE) {
+            if (now - this.times[INPUT] < STALE) {
+                return;
+            }
+            this.dropped += 1;
+        }
+        this.times[INPUT] = now;
+        this.next.set(SENT);
+    }
+
+    /**
+     * Marks that the traced event reached stage, each stage is marked from a single thread.
+     */
+    public void mark(int stage) {
+        if (this.next.get() != stage) {
+            return;
+        }
+        long now = System.nanoTime();
+        this.times[stage] = now;
+        this.histograms[stage].record((now - this.times[stage - 1]) / 1000);
+        if (stage == DRAWN) {
+            this.histograms[TOTAL].record((now - this.times[INPUT]) / 1000);
+            this.next.compareAndSet(stage, IDLE);
+        } else {
+            this.next.compareAndSet(stage, stage + 1);
+        }
+    }
+
+    /**
+     * Returns the histogram of the time from the stage before to stage, or from input to
+     * drawn for TOTAL.
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return this.histograms[stage];
+    }
+
+    public long getDroppedCount() {
+        return this.dropped;
+    }
+
+    /**
+     * Returns p50, p95 and p99 of each stage, one line each.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = SENT; i <= TOTAL; i++) {
+            LatencyHistogram histogram = this.histograms[i];
+            builder.append(String.format("%s: p50 %d us, p95 %d us, p99 %d us (%d)\n", NAMES[i],
+                    histogram.getPercentile(50), histogram.getPercentile(95),
+                    histogram.getPercentile(99), histogram.getCount()));
+        }
+        builder.append("dropped: ").append(this.dropped).append('\n');
+        return builder.toString();
+    }
+
+    public void reset() {
+        for (int i = SENT; i <= TOTAL; i++) {
+            this.histograms[i].reset();
+        }
+        this.dropped = 0;
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.Arrays;
+
+/**
+ * A line rendered by xi-core.
+ *
+ * Annotations are kept in parallel arrays indexed from 0 to getAnnotationCount(); colors and
+ * font styles are only meaningful for {@link Annotation#FG}.
+ */
+
+public final class Line {
+    public final String text;
+    // -1 when the cursor isn't on this line
+    public final int cursor;
+    private final int[] types;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] colors;
+    private final int[] fontStyles;
+
+    Line(String text, int cursor, int[] types, int[] starts, int[] ends, int[] colors, int[] fontStyles) {
+        this.text = text;
+        this.cursor = cursor;
+        this.types = types;
+        this.starts = starts;
+        this.ends = ends;
+        this.colors = colors;
+        this.fontStyles = fontStyles;
+    }
+
+    public boolean hasCursor() {
+        return this.cursor != -1;
+    }
+
+    public int getAnnotationCount() {
+        return this.types.length;
+    }
+
+    public int getType(int i) {
+        return this.types[i];
+    }
+
+    public int getStart(int i) {
+        return this.starts[i];
+    }
+
+    public int getEnd(int i) {
+        return this.ends[i];
+    }
+
+    public int getColor(int i) {
+        return this.colors[i];
+    }
+
+    public int getFontStyle(int i) {
+        return this.fontStyles[i];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Line)) {
+            return false;
+        }
+        Line other = (Line) o;
+        return this.cursor == other.cursor && this.text.equals(other.text) &&
+                Arrays.equals(this.types, other.types) &&
+                Arrays.equals(this.starts, other.starts) &&
+                Arrays.equals(this.ends, other.ends) &&
+                Arrays.equals(this.colors, other.colors) &&
+                Arrays.equals(this.fontStyles, other.fontStyles);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * this.text.hashCode() + this.cursor;
+        hash = 31 * hash + Arrays.hashCode(this.starts);
+        return 31 * hash + Arrays.hashCode(this.colors);
+    }
+}
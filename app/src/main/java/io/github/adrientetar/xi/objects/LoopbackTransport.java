@@ -0,0 +1,158 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * One end of an in-memory connection, for running a core in the same process.
+ *
+ * Each direction is a ring buffer, writers block while it is full and readers while it is
+ * empty. This is the cost of framing alone, without any system call.
+ */
+
+class LoopbackTransport extends Transport {
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final Pipe in;
+    private final Pipe out;
+    private final InputStream inStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return LoopbackTransport.this.in.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            LoopbackTransport.this.in.close();
+        }
+    };
+    private final OutputStream outStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            LoopbackTransport.this.out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            LoopbackTransport.this.out.close();
+        }
+    };
+
+    private LoopbackTransport(Pipe in, Pipe out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    static Transport[] pair(int capacity) {
+        Pipe a = new Pipe(capacity);
+        Pipe b = new Pipe(capacity);
+        return new Transport[]{new LoopbackTransport(a, b), new LoopbackTransport(b, a)};
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.inStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.outStream;
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        this.in.awaitClosed();
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        this.out.close();
+    }
+
+    @Override
+    public void destroy() {
+        this.out.close();
+        this.in.close();
+    }
+
+    private static class Pipe {
+        private final byte[] buffer;
+        private int head = 0;
+        private int count = 0;
+        private boolean closed = false;
+
+        Pipe(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                while (this.count == this.buffer.length && !this.closed) {
+                    this.await();
+                }
+                if (this.closed) {
+                    throw new IOException("Pipe closed");
+                }
+                int tail = (this.head + this.count) % this.buffer.length;
+                int n = Math.min(len, Math.min(this.buffer.length - this.count, this.buffer.length - tail));
+                System.arraycopy(b, off, this.buffer, tail, n);
+                this.count += n;
+                off += n;
+                len -= n;
+                this.notifyAll();
+            }
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (this.count == 0 && !this.closed) {
+                this.await();
+            }
+            if (this.count == 0) {
+                return -1;
+            }
+            int n = Math.min(len, Math.min(this.count, this.buffer.length - this.head));
+            System.arraycopy(this.buffer, this.head, b, off, n);
+            this.head = (this.head + n) % this.buffer.length;
+            this.count -= n;
+            this.notifyAll();
+            return n;
+        }
+
+        synchronized void close() {
+            this.closed = true;
+            this.notifyAll();
+        }
+
+        synchronized void awaitClosed() throws InterruptedException {
+            while (!this.closed) {
+                this.wait();
+            }
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
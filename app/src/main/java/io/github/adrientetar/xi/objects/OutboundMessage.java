@@ -0,0 +1,113 @@
+package io.github.adrientetar.xi.objects;
+
+import org.json.JSONObject;
+
+/**
+ * A message waiting in the {@link OutboundQueue}.
+ *
+ * Fixed-shape messages keep their arguments unserialized until the writer encodes them.
+ */
+
+final class OutboundMessage {
+    static final int GENERIC = 0;
+    static final int SCROLL = 1;
+    static final int DRAG = 2;
+    static final int INSERT = 3;
+    static final int CLICK = 4;
+    static final int EDIT = 5;
+    static final int RENDER_LINES = 6;
+
+    final int kind;
+    final String tab;
+    // scroll, render_lines: first line, last line; drag, click: line, column, modifiers, count
+    int a;
+    int b;
+    int c;
+    int d;
+    // render_lines: request id
+    int id;
+    // edit: method
+    String method;
+    StringBuilder chars;
+    private JSONObject root;
+
+    private OutboundMessage(int kind, String tab) {
+        this.kind = kind;
+        this.tab = tab;
+    }
+
+    static OutboundMessage generic(JSONObject root) {
+        OutboundMessage message = new OutboundMessage(GENERIC, null);
+        message.root = root;
+        return message;
+    }
+
+    static OutboundMessage scroll(String tab, int firstLine, int lastLine) {
+        OutboundMessage message = new OutboundMessage(SCROLL, tab);
+        message.a = firstLine;
+        message.b = lastLine;
+        return message;
+    }
+
+    static OutboundMessage drag(String tab, int line, int column, int modifiers) {
+        OutboundMessage message = new OutboundMessage(DRAG, tab);
+        message.a = line;
+        message.b = column;
+        message.c = modifiers;
+        return message;
+    }
+
+    static OutboundMessage click(String tab, int line, int column, int modifiers, int clickCount) {
+        OutboundMessage message = new OutboundMessage(CLICK, tab);
+        message.a = line;
+        message.b = column;
+        message.c = modifiers;
+        message.d = clickCount;
+        return message;
+    }
+
+    static OutboundMessage edit(String tab, String method) {
+        OutboundMessage message = new OutboundMessage(EDIT, tab);
+        message.method = method;
+        return message;
+    }
+
+    static OutboundMessage renderLines(int id, String tab, int firstLine, int lastLine) {
+        OutboundMessage message = new OutboundMessage(RENDER_LINES, tab);
+        message.id = id;
+        message.a = firstLine;
+        message.b = lastLine;
+        return message;
+    }
+
+    static OutboundMessage insert(String tab, String chars) {
+        OutboundMessage message = new OutboundMessage(INSERT, tab);
+        message.chars = new StringBuilder(chars);
+        return message;
+    }
+
+    void encode(XiEncoder encoder) {
+        switch (this.kind) {
+            case SCROLL:
+                encoder.editArray(this.tab, "scroll", this.a, this.b);
+                break;
+            case DRAG:
+                encoder.editArray(this.tab, "drag", this.a, this.b, this.c);
+                break;
+            case INSERT:
+                encoder.insert(this.tab, this.chars);
+                break;
+            case CLICK:
+                encoder.editArray(this.tab, "click", this.a, this.b, this.c, this.d);
+                break;
+            case EDIT:
+                encoder.edit(this.tab, this.method);
+                break;
+            case RENDER_LINES:
+                encoder.renderLines(this.id, this.tab, this.a, this.b);
+                break;
+            default:
+                encoder.raw(this.root.toString());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Messages to xi-core waiting for the writer thread.
+ *
+ * Redundant messages are merged while they wait: only the latest scroll of a tab is kept, at
+ * the end of the queue, and back-to-back drags or inserts on the same tab collapse into one.
+ */
+
+class OutboundQueue {
+    private final ArrayDeque<OutboundMessage> queue = new ArrayDeque<>();
+    private long enqueued = 0;
+    private long coalesced = 0;
+
+    synchronized void add(OutboundMessage message) {
+        this.enqueued += 1;
+        OutboundMessage last = this.queue.peekLast();
+        switch (message.kind) {
+            case OutboundMessage.SCROLL:
+                // the viewport goes after whatever was queued since the older scroll
+                Iterator<OutboundMessage> it = this.queue.iterator();
+                while (it.hasNext()) {
+                    OutboundMessage pending = it.next();
+                    if (pending.kind == OutboundMessage.SCROLL && pending.tab.equals(message.tab)) {
+                        it.remove();
+                        this.coalesced += 1;
+                        break;
+                    }
+                }
+                break;
+            case OutboundMessage.DRAG:
+                if (last != null && last.kind == OutboundMessage.DRAG && last.tab.equals(message.tab)) {
+                    last.a = message.a;
+                    last.b = message.b;
+                    last.c = message.c;
+                    this.coalesced += 1;
+                    return;
+                }
+                break;
+            case OutboundMessage.INSERT:
+                if (last != null && last.kind == OutboundMessage.INSERT && last.tab.equals(message.tab)) {
+                    last.chars.append(message.chars);
+                    this.coalesced += 1;
+                    return;
+                }
+                break;
+        }
+        this.queue.addLast(message);
+        this.notifyAll();
+    }
+
+    /**
+     * Blocks until there is something to send.
+     */
+    synchronized void await() throws InterruptedException {
+        while (this.queue.isEmpty()) {
+            this.wait();
+        }
+    }
+
+    synchronized void clear() {
+        this.queue.clear();
+    }
+
+    synchronized void drainTo(List<OutboundMessage> batch) {
+        batch.addAll(this.queue);
+        this.queue.clear();
+    }
+
+    synchronized long getEnqueuedCount() {
+        return this.enqueued;
+    }
+
+    synchronized long getCoalescedCount() {
+        return this.coalesced;
+    }
+}
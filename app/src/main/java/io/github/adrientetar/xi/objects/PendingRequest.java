@@ -0,0 +1,43 @@
+package io.github.adrientetar.xi.objects;
+
+/**
+ * Handle on a request sent to xi-core, which may be cancelled until its response arrives.
+ */
+
+public final class PendingRequest implements ResponseTable.Entry {
+    static final int QUEUED = 0;
+    static final int IN_FLIGHT = 1;
+    static final int DONE = 2;
+
+    final int id;
+    final XiBridge.ResponseHandler handler;
+    final OutboundMessage message;
+    private final PendingRequests table;
+    volatile int state = QUEUED;
+    long deadline;
+
+    PendingRequest(PendingRequests table, int id, XiBridge.ResponseHandler handler,
+                   OutboundMessage message) {
+        this.table = table;
+        this.id = id;
+        this.handler = handler;
+        this.message = message;
+    }
+
+    /**
+     * Drops the request, its handler won't be invoked. Requests held back by the in-flight
+     * cap are never sent.
+     */
+    public void cancel() {
+        this.table.cancel(this);
+    }
+
+    @Override
+    public int getId() {
+        return this.id;
+    }
+
+    public boolean isPending() {
+        return this.state != DONE;
+    }
+}
@@ -0,0 +1,224 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Requests waiting for a response from xi-core.
+ *
+ * At most maxInFlight requests are sent at once, later ones are held back in order until a
+ * response, timeout or cancellation frees a slot. A request that got no response after
+ * timeout ms is dropped, and so is one that was held back for as long, so that requests
+ * pile up for at most that long when xi-core stops responding.
+ *
+ * Ids and lookups by id go through a {@link ResponseTable} without locking, the rest of the
+ * bookkeeping is synchronized, so requests can be added and completed from any thread.
+ */
+
+class PendingRequests {
+    private static final int CAPACITY = 1024;
+
+    private final ResponseTable<PendingRequest> table = new ResponseTable<>(CAPACITY);
+    private final Sender sender;
+    private final Clock clock;
+    // In sending order, hence in deadline order as long as the timeout doesn't change
+    private final LinkedHashMap<Integer, PendingRequest> inFlight = new LinkedHashMap<>();
+    private final ArrayDeque<PendingRequest> queued = new ArrayDeque<>();
+    private int maxInFlight;
+    private long timeout;
+    private long timeouts = 0;
+    private long cancellations = 0;
+    private long deferrals = 0;
+
+    interface Sender {
+        // Called with the table locked
+        void send(PendingRequest request);
+        // The request is done without a response, whether it went out or not
+        void drop(PendingRequest request);
+    }
+
+    interface Clock {
+        // In ms
+        long now();
+    }
+
+    PendingRequests(Sender sender, Clock clock, int maxInFlight, long timeout) {
+        this.sender = sender;
+        this.clock = clock;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the id of a new request, which must then be added or released, or -1 if too
+     * many requests are pending already.
+     */
+    int reserveId() {
+        return this.table.reserve();
+    }
+
+    void releaseId(int id) {
+        this.table.release(id);
+    }
+
+    synchronized PendingRequest add(int id, XiBridge.ResponseHandler handler, OutboundMessage message) {
+        PendingRequest request = new PendingRequest(this, id, handler, message);
+        this.table.put(request);
+        if (this.queued.isEmpty() && this.inFlight.size() < this.maxInFlight) {
+            this.send(request);
+        } else {
+            this.deferrals += 1;
+            request.deadline = this.clock.now() + this.timeout;
+            this.queued.add(request);
+        }
+        return request;
+    }
+
+    /**
+     * Takes the request a response is for, null if it was cancelled or timed out.
+     */
+    PendingRequest complete(int id) {
+        PendingRequest request = this.table.remove(id);
+        if (request == null) {
+            return null;
+        }
+        synchronized (this) {
+            this.inFlight.remove(id);
+            request.state = PendingRequest.DONE;
+            this.sendQueued();
+        }
+        return request;
+    }
+
+    /**
+     * Returns the request still waiting with id, or null.
+     */
+    PendingRequest get(int id) {
+        return this.table.get(id);
+    }
+
+    synchronized void cancel(PendingRequest request) {
+        if (request.state == PendingRequest.DONE || !this.table.remove(request)) {
+            // done, or its response is being handled
+            return;
+        }
+        if (request.state == PendingRequest.QUEUED) {
+            this.queued.remove(request);
+        } else {
+            this.inFlight.remove(request.id);
+        }
+        request.state = PendingRequest.DONE;
+        this.cancellations += 1;
+        this.sender.drop(request);
+        this.sendQueued();
+    }
+
+    /**
+     * Drops requests whose deadline passed, adding them to expired.
+     */
+    synchronized void expire(List<PendingRequest> expired) {
+        long now = this.clock.now();
+        Iterator<PendingRequest> it = this.inFlight.values().iterator();
+        while (it.hasNext()) {
+            PendingRequest request = it.next();
+            if (request.deadline > now) {
+                break;
+            }
+            if (!this.table.remove(request)) {
+                // its response just came in
+                continue;
+            }
+            it.remove();
+            this.drop(request, expired);
+        }
+        // held back in order, hence in deadline order too
+        while (!this.queued.isEmpty() && this.queued.peek().deadline <= now) {
+            PendingRequest request = this.queued.poll();
+            if (this.table.remove(request)) {
+                this.drop(request, expired);
+            }
+        }
+        this.sendQueued();
+    }
+
+    private void drop(PendingRequest request, List<PendingRequest> expired) {
+        request.state = PendingRequest.DONE;
+        this.timeouts += 1;
+        this.sender.drop(request);
+        expired.add(request);
+    }
+
+    /**
+     * Drops all requests, adding them to abandoned. Nothing held back is sent.
+     */
+    synchronized void abandon(List<PendingRequest> abandoned) {
+        int start = abandoned.size();
+        abandoned.addAll(this.inFlight.values());
+        abandoned.addAll(this.queued);
+        this.inFlight.clear();
+        this.queued.clear();
+        for (int i = start; i < abandoned.size(); i++) {
+            PendingRequest request = abandoned.get(i);
+            this.table.remove(request);
+            request.state = PendingRequest.DONE;
+            this.sender.drop(request);
+        }
+    }
+
+    /**
+     * Returns the earliest deadline, or -1 if nothing is pending.
+     */
+    synchronized long getNextDeadline() {
+        Iterator<PendingRequest> it = this.inFlight.values().iterator();
+        long deadline = it.hasNext() ? it.next().deadline : -1;
+        PendingRequest queued = this.queued.peek();
+        if (queued != null && (deadline == -1 || queued.deadline < deadline)) {
+            deadline = queued.deadline;
+        }
+        return deadline;
+    }
+
+    synchronized void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.sendQueued();
+    }
+
+    synchronized void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    synchronized int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    synchronized int getQueuedCount() {
+        return this.queued.size();
+    }
+
+    synchronized long getTimeoutCount() {
+        return this.timeouts;
+    }
+
+    synchronized long getCancelCount() {
+        return this.cancellations;
+    }
+
+    synchronized long getDeferCount() {
+        return this.deferrals;
+    }
+
+    private void send(PendingRequest request) {
+        request.state = PendingRequest.IN_FLIGHT;
+        request.deadline = this.clock.now() + this.timeout;
+        this.inFlight.put(request.id, request);
+        this.sender.send(request);
+    }
+
+    private void sendQueued() {
+        while (!this.queued.isEmpty() && this.inFlight.size() < this.maxInFlight) {
+            this.send(this.queued.poll());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Plays the part of xi-core from a recording, sending what it sent back then.
+ *
+ * Lines are sent at their recorded time, or as fast as they can be read. What the bridge
+ * sends is read and dropped; closing our output ends the session like xi-core quitting.
+ * Once the recording is over the connection stays open, so that nothing gets restarted.
+ */
+
+class ReplayTransport extends Transport {
+    private final Transport app;
+    private final Transport core;
+    private final Thread player;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile long sent = 0;
+
+    ReplayTransport(final SessionReplay replay, final boolean realtime) {
+        Transport[] ends = LoopbackTransport.pair(LoopbackTransport.DEFAULT_CAPACITY);
+        this.app = ends[0];
+        this.core = ends[1];
+
+        this.player = new Thread("XiReplay") {
+            @Override
+            public void run() {
+                ReplayTransport.this.play(replay, realtime);
+            }
+        };
+        this.player.setDaemon(true);
+        this.player.start();
+
+        Thread sink = new Thread("XiReplaySink") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                InputStream in = ReplayTransport.this.core.getInputStream();
+                try {
+                    while (in.read(buffer) != -1) {}
+                } catch (IOException e) {
+                    // torn down
+                }
+                ReplayTransport.this.core.close();
+            }
+        };
+        sink.setDaemon(true);
+        sink.start();
+    }
+
+    private void play(SessionReplay replay, boolean realtime) {
+        OutputStream out = this.core.getOutputStream();
+        long start = System.nanoTime();
+        try {
+            while (replay.next()) {
+                if (replay.direction != SessionRecorder.INBOUND) {
+                    continue;
+                }
+                if (realtime) {
+                    long delay = start + replay.time * 1000 - System.nanoTime();
+                    if (delay > 0) {
+                        Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                    }
+                }
+                out.write(replay.line, 0, replay.length);
+                out.write('\n');
+                this.sent += 1;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            // destroyed
+        } finally {
+            replay.close();
+            this.done.countDown();
+        }
+    }
+
+    /**
+     * Blocks until the whole recording was sent.
+     */
+    void awaitDone() throws InterruptedException {
+        this.done.await();
+    }
+
+    long getSentCount() {
+        return this.sent;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.app.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.app.getOutputStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        return this.app.waitFor();
+    }
+
+    @Override
+    public void close() {
+        this.app.close();
+    }
+
+    @Override
+    public void destroy() {
+        this.player.interrupt();
+        this.app.destroy();
+        this.core.destroy();
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Request ids, and the requests waiting for a response by id, usable from any thread
+ * without locking.
+ *
+ * Ids come from a counter, and a request sits in the slot of its id modulo the capacity. An
+ * id whose slot is still taken by an older request is skipped.
+ */
+
+class ResponseTable<T extends ResponseTable.Entry> {
+    // Holds the slot of an id between reserving it and putting its request
+    private static final Entry RESERVED = new Entry() {
+        @Override
+        public int getId() {
+            return -1;
+        }
+    };
+
+    private final AtomicInteger ids = new AtomicInteger(0);
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    interface Entry {
+        int getId();
+    }
+
+    /**
+     * capacity is rounded up to a power of two, and bounds how many requests can be pending.
+     */
+    ResponseTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns a new id, whose request must then be put, or -1 if all slots are taken.
+     */
+    int reserve() {
+        for (int i = 0; i <= this.mask; i++) {
+            int id = this.ids.getAndIncrement() & Integer.MAX_VALUE;
+            if (this.slots.compareAndSet(id & this.mask, null, RESERVED)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gives back an id that ended up unused.
+     */
+    void release(int id) {
+        this.slots.compareAndSet(id & this.mask, RESERVED, null);
+    }
+
+    void put(T request) {
+        this.slots.set(request.getId() & this.mask, request);
+    }
+
+    /**
+     * Returns the request waiting with id, or null.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        Entry request = this.slots.get(id & this.mask);
+        return request != null && request.getId() == id ? (T) request : null;
+    }
+
+    /**
+     * Takes the request waiting with id, null if there is none or another thread took it.
+     */
+    T remove(int id) {
+        T request = this.get(id);
+        if (request != null && this.slots.compareAndSet(id & this.mask, request, null)) {
+            return request;
+        }
+        return null;
+    }
+
+    /**
+     * Takes request out, returns false if it was not there anymore.
+     */
+    boolean remove(T request) {
+        return this.slots.compareAndSet(request.getId() & this.mask, request, null);
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Records the lines going to and coming from xi-core, with the time they went through.
+ *
+ * A recording starts with {@link #MAGIC}, then each line is a record of varints: the time
+ * since the previous record in microseconds, the line length shifted left by one with the
+ * direction in the low bit, followed by the line without its newline. Streams are wrapped
+ * once by the bridge, and cost a volatile read per read or write while not recording.
+ */
+
+class SessionRecorder {
+    static final byte[] MAGIC = {'x', 'i', 'r', 'e', 'c', 1};
+    static final int OUTBOUND = 0;
+    static final int INBOUND = 1;
+
+    private final Direction[] directions = {new Direction(), new Direction()};
+    private volatile boolean recording = false;
+    private OutputStream out = null;
+    private long last;
+
+    private static class Direction {
+        // Whether the last bytes seen didn't end a line, written by one thread only
+        volatile boolean midLine = false;
+        boolean skipping = false;
+        byte[] line = new byte[256];
+        int length = 0;
+
+        void append(byte[] b, int off, int len) {
+            if (this.length + len > this.line.length) {
+                byte[] line = new byte[Math.max(this.line.length * 2, this.length + len)];
+                System.arraycopy(this.line, 0, line, 0, this.length);
+                this.line = line;
+            }
+            System.arraycopy(b, off, this.line, this.length, len);
+            this.length += len;
+        }
+    }
+
+    /**
+     * Starts writing records to out, which is closed when recording stops.
+     */
+    synchronized void start(OutputStream out) throws IOException {
+        this.stop();
+        out.write(MAGIC);
+        for (Direction direction : this.directions) {
+            // the rest of a line that started before has nothing to go with
+            direction.skipping = direction.midLine;
+            direction.length = 0;
+        }
+        this.out = out;
+        this.last = System.nanoTime();
+        this.recording = true;
+    }
+
+    synchronized void stop() {
+        this.recording = false;
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.out = null;
+        }
+    }
+
+    boolean isRecording() {
+        return this.recording;
+    }
+
+    InputStream inbound(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int c = super.read();
+                if (c != -1) {
+                    SessionRecorder.this.record(INBOUND, new byte[]{(byte) c}, 0, 1);
+                }
+                return c;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) {
+                    SessionRecorder.this.record(INBOUND, b, off, count);
+                }
+                return count;
+            }
+        };
+    }
+
+    OutputStream outbound(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                this.out.write(b);
+                SessionRecorder.this.record(OUTBOUND, new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                this.out.write(b, off, len);
+                SessionRecorder.this.record(OUTBOUND, b, off, len);
+            }
+        };
+    }
+
+    private void record(int direction, byte[] b, int off, int len) {
+        Direction d = this.directions[direction];
+        if (!this.recording) {
+            d.midLine = b[off + len - 1] != '\n';
+            return;
+        }
+        synchronized (this) {
+            d.midLine = b[off + len - 1] != '\n';
+            if (this.out == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            int start = off;
+            int end = off + len;
+            try {
+                for (int i = off; i < end; i++) {
+                    if (b[i] != '\n') {
+                        continue;
+                    }
+                    if (d.skipping) {
+                        d.skipping = false;
+                    } else {
+                        d.append(b, start, i - start);
+                        this.write(direction, now, d.line, d.length);
+                    }
+                    d.length = 0;
+                    start = i + 1;
+                }
+                if (!d.skipping) {
+                    d.append(b, start, end - start);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                this.stop();
+            }
+        }
+    }
+
+    private void write(int direction, long now, byte[] line, int length) throws IOException {
+        this.writeVarint((now - this.last) / 1000);
+        // keep the remainder, so that rounding doesn't add up
+        this.last = now - (now - this.last) % 1000;
+        this.writeVarint(((long) length << 1) | direction);
+        this.out.write(line, 0, length);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            this.out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        this.out.write((int) value);
+    }
+}
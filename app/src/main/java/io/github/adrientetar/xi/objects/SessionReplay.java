@@ -0,0 +1,78 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads back the records of a {@link SessionRecorder} recording, one line at a time.
+ */
+
+class SessionReplay {
+    private final InputStream in;
+    // Of the current record
+    int direction;
+    // Since the recording started, in microseconds
+    long time = 0;
+    byte[] line = new byte[256];
+    int length;
+
+    SessionReplay(InputStream in) throws IOException {
+        this.in = in;
+        for (byte b : SessionRecorder.MAGIC) {
+            if (this.in.read() != b) {
+                throw new IOException("Not a xi-core recording");
+            }
+        }
+    }
+
+    /**
+     * Moves to the next record, returns false at the end of the recording.
+     */
+    boolean next() throws IOException {
+        int first = this.in.read();
+        if (first == -1) {
+            return false;
+        }
+        this.time += this.readVarint(first);
+        long header = this.readVarint(this.in.read());
+        this.direction = (int) (header & 1);
+        this.length = (int) (header >>> 1);
+        if (this.length > this.line.length) {
+            this.line = new byte[Math.max(this.line.length * 2, this.length)];
+        }
+        int count = 0;
+        while (count < this.length) {
+            int n = this.in.read(this.line, count, this.length - count);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            count += n;
+        }
+        return true;
+    }
+
+    void close() {
+        try {
+            this.in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private long readVarint(int b) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            b = this.in.read();
+        }
+    }
+}
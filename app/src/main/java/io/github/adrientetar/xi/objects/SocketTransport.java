@@ -0,0 +1,172 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Talks to xi-core over a connected socket channel.
+ *
+ * Both directions go through a direct buffer, so the channel reads and writes straight from
+ * native memory, and the encoder and decoder buffers are copied once on each side.
+ *
+ * There is no authentication: any app on the device can connect to a port that listens on
+ * the loopback interface, and talk to xi-core as the editor does. Only point this at a
+ * xi-core that is meant to be shared that way, such as one on a development machine.
+ */
+
+class SocketTransport extends Transport {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    SocketTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.channel.configureBlocking(true);
+        // the writer already batches messages per frame
+        this.channel.socket().setTcpNoDelay(true);
+        this.in = new ChannelInputStream();
+        this.out = new ChannelOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.out;
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        this.closed.await();
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        // The writer flushes every batch, and may be draining the buffer right now
+        try {
+            this.channel.socket().shutdownOutput();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.closed.countDown();
+    }
+
+    private class ChannelInputStream extends InputStream {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ChannelInputStream() {
+            this.buffer.limit(0);
+        }
+
+        private boolean fill() throws IOException {
+            this.buffer.clear();
+            int count;
+            try {
+                count = SocketTransport.this.channel.read(this.buffer);
+            } catch (IOException e) {
+                SocketTransport.this.closed.countDown();
+                throw e;
+            }
+            this.buffer.flip();
+            if (count == -1) {
+                SocketTransport.this.closed.countDown();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.buffer.hasRemaining() && !this.fill()) {
+                return -1;
+            }
+            return this.buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining() && !this.fill()) {
+                return -1;
+            }
+            int count = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            SocketTransport.this.destroy();
+        }
+    }
+
+    private class ChannelOutputStream extends OutputStream {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private void drain() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                SocketTransport.this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!this.buffer.hasRemaining()) {
+                this.drain();
+            }
+            this.buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!this.buffer.hasRemaining()) {
+                    this.drain();
+                }
+                int count = Math.min(len, this.buffer.remaining());
+                this.buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.drain();
+        }
+
+        @Override
+        public void close() {
+            SocketTransport.this.close();
+        }
+    }
+}
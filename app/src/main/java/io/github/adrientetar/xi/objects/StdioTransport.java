@@ -0,0 +1,46 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Talks to a xi-core process over its stdin and stdout.
+ */
+
+class StdioTransport extends Transport {
+    private final Process process;
+
+    StdioTransport(Process process) {
+        this.process = process;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.process.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.process.getOutputStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        return this.process.waitFor();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.process.getOutputStream().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.process.destroy();
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.IOException;
+
+/**
+ * Keeps a xi-core running, restarting it when it dies or its transport goes down.
+ *
+ * Restarts back off exponentially while it keeps dying young, and go back to the
+ * shortest delay once it has stayed up for a while.
+ */
+
+class Supervisor {
+    // A xi-core that lived this long (in ms) is considered to have started fine
+    private static final long STABLE = 30000;
+
+    private final Launcher launcher;
+    private final Listener listener;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private volatile Transport transport;
+    private volatile boolean stopped = false;
+    private volatile int restarts = 0;
+    private Thread thread;
+
+    interface Launcher {
+        Transport launch() throws IOException;
+    }
+
+    interface Listener {
+        // Called from the supervisor thread, the transport is gone
+        void onExit(Transport transport, int exitValue);
+        // Called from the supervisor thread with the replacement transport
+        void onRestart(Transport transport);
+    }
+
+    Supervisor(Launcher launcher, Listener listener, long minBackoff, long maxBackoff) {
+        this.launcher = launcher;
+        this.listener = listener;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Launches the first xi-core on the calling thread, and starts watching over it.
+     */
+    Transport start() throws IOException {
+        this.transport = this.launcher.launch();
+        this.thread = new Thread("XiSupervisor") {
+            @Override
+            public void run() {
+                Supervisor.this.supervise();
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+        return this.transport;
+    }
+
+    void stop() {
+        this.stopped = true;
+        if (this.thread != null) {
+            this.thread.interrupt();
+        }
+    }
+
+    Transport getTransport() {
+        return this.transport;
+    }
+
+    int getRestartCount() {
+        return this.restarts;
+    }
+
+    /**
+     * Returns how long to wait before restarting a xi-core that lived for lifetime ms,
+     * given the previous delay.
+     */
+    long nextBackoff(long previous, long lifetime) {
+        if (lifetime >= STABLE || previous == 0) {
+            return this.minBackoff;
+        }
+        return Math.min(2 * previous, this.maxBackoff);
+    }
+
+    private void supervise() {
+        long backoff = 0;
+        // not the wall clock, which may be set while xi-core runs
+        long started = System.nanoTime();
+        try {
+            while (!this.stopped) {
+                Transport transport = this.transport;
+                int exitValue = transport.waitFor();
+                if (this.stopped) {
+                    return;
+                }
+                this.listener.onExit(transport, exitValue);
+
+                backoff = this.nextBackoff(backoff, (System.nanoTime() - started) / 1000000);
+                while (true) {
+                    Thread.sleep(backoff);
+                    if (this.stopped) {
+                        return;
+                    }
+                    try {
+                        transport = this.launcher.launch();
+                        break;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        backoff = this.nextBackoff(backoff, 0);
+                    }
+                }
+                started = System.nanoTime();
+                this.transport = transport;
+                this.restarts += 1;
+                this.listener.onRestart(transport);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+}
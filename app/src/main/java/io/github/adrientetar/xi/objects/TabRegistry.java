@@ -0,0 +1,200 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.HashMap;
+
+/**
+ * Open tabs, and the listener their updates are routed to.
+ *
+ * Updates for hidden tabs are collapsed into one pending update, which is delivered when
+ * the tab is shown again. Tabs keep the name xi-core first gave them: after a restart they
+ * are opened again with {@link #replay}, and names are translated from then on. A restarted
+ * xi-core numbers its tabs from scratch, so a tab it makes later gets another name here if
+ * its own is taken by a tab that was replayed. Only used from the main thread.
+ */
+
+class TabRegistry {
+    private final HashMap<String, Tab> tabs = new HashMap<>();
+    // xi-core's names for tabs to ours, they only differ after a restart
+    private final HashMap<String, String> names = new HashMap<>();
+    private int registered = 0;
+    private int renamed = 0;
+
+    private static class Tab {
+        final String name;
+        // null while waiting for a restarted xi-core to open the tab again
+        String coreName;
+        XiBridge.OnUpdateListener listener = null;
+        boolean visible = true;
+        Update pending = null;
+        String filename = null;
+        // Scroll window, lastLine is -1 until the first scroll
+        int firstLine = 0;
+        int lastLine = -1;
+
+        Tab(String name) {
+            this.name = name;
+            this.coreName = name;
+        }
+    }
+
+    interface Replayer {
+        void newTab(XiBridge.ResponseHandler handler);
+        void open(String coreTab, String filename);
+        void scroll(String coreTab, int firstLine, int lastLine);
+    }
+
+    /**
+     * Adds a tab xi-core just made as coreName, returns the name it goes by here.
+     */
+    String add(String coreName) {
+        String name = this.names.get(coreName);
+        if (name != null) {
+            return name;
+        }
+        name = coreName;
+        while (this.tabs.containsKey(name)) {
+            // taken by a tab that was open before a restart
+            this.renamed += 1;
+            name = coreName + "#" + this.renamed;
+        }
+        Tab tab = new Tab(name);
+        tab.coreName = coreName;
+        this.tabs.put(name, tab);
+        this.names.put(coreName, name);
+        return name;
+    }
+
+    void remove(String name) {
+        Tab tab = this.tabs.remove(name);
+        if (tab != null) {
+            if (tab.listener != null) {
+                this.registered -= 1;
+            }
+            if (tab.coreName != null) {
+                this.names.remove(tab.coreName);
+            }
+        }
+    }
+
+    void register(String name, XiBridge.OnUpdateListener listener) {
+        Tab tab = this.tabs.get(name);
+        if (tab == null) {
+            tab = this.tabs.get(this.add(name));
+        }
+        if (tab.listener == null) {
+            this.registered += 1;
+        }
+        tab.listener = listener;
+    }
+
+    void unregister(String name) {
+        Tab tab = this.tabs.get(name);
+        if (tab != null && tab.listener != null) {
+            tab.listener = null;
+            tab.pending = null;
+            this.registered -= 1;
+        }
+    }
+
+    boolean contains(String tab) {
+        return this.tabs.containsKey(tab);
+    }
+
+    /**
+     * Returns the number of tabs with a listener.
+     */
+    int size() {
+        return this.registered;
+    }
+
+    /**
+     * Returns the name xi-core knows tab by, null if it isn't open there yet.
+     */
+    String toCore(String name) {
+        Tab tab = this.tabs.get(name);
+        return tab != null ? tab.coreName : name;
+    }
+
+    String fromCore(String coreName) {
+        String name = this.names.get(coreName);
+        return name != null ? name : coreName;
+    }
+
+    void setFilename(String name, String filename) {
+        Tab tab = this.tabs.get(name);
+        if (tab != null) {
+            tab.filename = filename;
+        }
+    }
+
+    void setScroll(String name, int firstLine, int lastLine) {
+        Tab tab = this.tabs.get(name);
+        if (tab != null) {
+            tab.firstLine = firstLine;
+            tab.lastLine = lastLine;
+        }
+    }
+
+    void setVisible(String name, boolean visible) {
+        Tab tab = this.tabs.get(name);
+        if (tab == null || tab.visible == visible) {
+            return;
+        }
+        tab.visible = visible;
+        if (visible && tab.pending != null && tab.listener != null) {
+            Update pending = tab.pending;
+            tab.pending = null;
+            tab.listener.onUpdate(pending);
+        }
+    }
+
+    /**
+     * Delivers or buffers update, returns false if its tab has no listener.
+     */
+    boolean dispatch(Update update) {
+        Tab tab = this.tabs.get(update.tab);
+        if (tab == null || tab.listener == null) {
+            return false;
+        }
+        if (tab.visible) {
+            tab.listener.onUpdate(update);
+        } else {
+            tab.pending = Update.collapse(tab.pending, update);
+        }
+        return true;
+    }
+
+    /**
+     * Opens all tabs again in a new xi-core, with their file and scroll window.
+     *
+     * Listeners then get a stale update, so that they render their lines again.
+     */
+    void replay(final Replayer replayer) {
+        this.names.clear();
+        for (final Tab tab : this.tabs.values()) {
+            tab.coreName = null;
+            replayer.newTab(new XiBridge.ResponseHandler() {
+                @Override
+                public void invoke(Object result) {
+                    TabRegistry.this.reopen(tab, (String) result, replayer);
+                }
+            });
+        }
+    }
+
+    private void reopen(Tab tab, String coreName, Replayer replayer) {
+        if (this.tabs.get(tab.name) != tab) {
+            // closed in the meantime
+            return;
+        }
+        tab.coreName = coreName;
+        this.names.put(coreName, tab.name);
+        if (tab.filename != null) {
+            replayer.open(coreName, tab.filename);
+        }
+        if (tab.lastLine != -1) {
+            replayer.scroll(coreName, tab.firstLine, tab.lastLine);
+        }
+        this.dispatch(Update.invalidate(tab.name));
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Byte streams to and from a xi-core, whichever way it is reached.
+ *
+ * Messages are framed the same on all transports, one JSON object per line.
+ */
+
+public abstract class Transport {
+
+    public interface Factory {
+        // Called again each time xi-core has to be restarted
+        Transport open() throws IOException;
+    }
+
+    public abstract InputStream getInputStream();
+
+    public abstract OutputStream getOutputStream();
+
+    /**
+     * Blocks until xi-core is gone, returns its exit status if it has one.
+     */
+    public abstract int waitFor() throws InterruptedException;
+
+    /**
+     * Closes our output, xi-core quits silently once it sees the end of its input.
+     */
+    public abstract void close();
+
+    /**
+     * Tears the connection down, waking up {@link #waitFor()}.
+     */
+    public abstract void destroy();
+
+    /**
+     * Spawns command, talking to it over its stdin and stdout.
+     */
+    public static Factory stdio(final String... command) {
+        return new Factory() {
+            @Override
+            public Transport open() throws IOException {
+                return new StdioTransport(Runtime.getRuntime().exec(command));
+            }
+        };
+    }
+
+    /**
+     * Connects to a xi-core that listens on host and port, usually on the loopback interface.
+     */
+    public static Factory socket(final String host, final int port) {
+        return new Factory() {
+            @Override
+            public Transport open() throws IOException {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                return new SocketTransport(channel);
+            }
+        };
+    }
+
+    /**
+     * Replays a session recorded by {@link XiBridge#startRecording}, standing in for xi-core.
+     *
+     * With realtime, lines are sent at the pace they were recorded at, else as fast as they
+     * are read.
+     */
+    public static Factory replay(final File recording, final boolean realtime) {
+        return new Factory() {
+            @Override
+            public Transport open() throws IOException {
+                SessionReplay replay = new SessionReplay(new BufferedInputStream(new FileInputStream(recording)));
+                return new ReplayTransport(replay, realtime);
+            }
+        };
+    }
+
+    /**
+     * Returns two transports connected to each other in memory, one for each side.
+     */
+    public static Transport[] loopback() {
+        return LoopbackTransport.pair(LoopbackTransport.DEFAULT_CAPACITY);
+    }
+}
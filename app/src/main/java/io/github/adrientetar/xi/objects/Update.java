@@ -0,0 +1,78 @@
+package io.github.adrientetar.xi.objects;
+
+/**
+ * An update notification from xi-core, decoded off the main thread.
+ */
+
+public final class Update {
+    private static final Line[] NO_LINES = {};
+
+    public final String tab;
+    // -1 when the update doesn't carry a new height
+    public final int height;
+    public final int firstLine;
+    public final Line[] lines;
+    // -1 when the update doesn't ask to scroll
+    public final int scrollToLine;
+    public final int scrollToColumn;
+    // Set when previously rendered lines may be stale: lines were dropped while the tab was
+    // hidden, or xi-core was restarted
+    public final boolean stale;
+
+    Update(String tab, int height, int firstLine, Line[] lines, int scrollToLine, int scrollToColumn) {
+        this(tab, height, firstLine, lines, scrollToLine, scrollToColumn, false);
+    }
+
+    private Update(String tab, int height, int firstLine, Line[] lines, int scrollToLine,
+                   int scrollToColumn, boolean stale) {
+        this.tab = tab;
+        this.height = height;
+        this.firstLine = firstLine;
+        this.lines = lines;
+        this.scrollToLine = scrollToLine;
+        this.scrollToColumn = scrollToColumn;
+        this.stale = stale;
+    }
+
+    /**
+     * Returns an update telling that all lines of tab must be rendered again.
+     */
+    static Update invalidate(String tab) {
+        return new Update(tab, -1, 0, NO_LINES, -1, -1, true);
+    }
+
+    /**
+     * Returns this update for another tab name.
+     */
+    Update withTab(String tab) {
+        return new Update(tab, this.height, this.firstLine, this.lines, this.scrollToLine,
+                this.scrollToColumn, this.stale);
+    }
+
+    /**
+     * Folds update into pending, keeping the latest height and scroll but none of the lines.
+     */
+    static Update collapse(Update pending, Update update) {
+        boolean stale = update.stale || update.lines.length > 0;
+        Update older = pending != null ? pending : update;
+        if (pending != null) {
+            stale |= pending.stale;
+        }
+        int height = update.hasHeight() ? update.height : older.height;
+        int scrollToLine = update.scrollToLine;
+        int scrollToColumn = update.scrollToColumn;
+        if (!update.hasScrollTo()) {
+            scrollToLine = older.scrollToLine;
+            scrollToColumn = older.scrollToColumn;
+        }
+        return new Update(update.tab, height, 0, NO_LINES, scrollToLine, scrollToColumn, stale);
+    }
+
+    public boolean hasHeight() {
+        return this.height != -1;
+    }
+
+    public boolean hasScrollTo() {
+        return this.scrollToLine != -1;
+    }
+}
@@ -4,38 +4,58 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.SparseArray;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Bridge that spawns a xi-core process and provides a comm interface.
  *
+ * The process is reached through a {@link Transport}, its stdin and stdout by default.
  * The RPC APIs are similar to those of xi-gtk CoreConnection.
  */
 
 public class XiBridge {
-    private int id = 0;
     // Bridge to app
-    private SparseArray<ResponseHandler> handlers;
+    private PendingRequests pending;
+    private final List<PendingRequest> expired = new ArrayList<>();
+    private final AtomicBoolean expiryScheduled = new AtomicBoolean(false);
     private OnUpdateListener listener = null;
+    private final TabRegistry tabs = new TabRegistry();
+    private int updateCount = 0;
+    private long updateTime = 0;
     // Bridge to process
-    private Process process;
-    private BufferedWriter writer;
+    private Supervisor supervisor;
+    private Transport transport;
+    private long spawnTime = 0;
+    private final OutboundQueue queue = new OutboundQueue();
+    private volatile WriterThread writer;
+    private long sentBefore = 0;
+    private final SessionRecorder recorder = new SessionRecorder();
+    private final LatencyTracer tracer = new LatencyTracer();
+    // Bumped on restart, messages from the threads of a dead process are ignored
+    private int connection = 0;
     // Bridge to polling thread
-    private Handler handler;
+    private final Handler handler;
     private Thread watcher;
+    private static final int MSG_RESPONSE = 0;
+    private static final int MSG_UPDATE = 1;
+    private static final int MSG_RESTART = 2;
+    private static final int MSG_ERROR = 3;
+    private static final long MIN_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 10000;
+    private static final int MAX_IN_FLIGHT = 32;
+    private static final long REQUEST_TIMEOUT = 10000;
 
     // App interfaces
 
@@ -43,113 +63,399 @@ public class XiBridge {
         void invoke(Object result);
     }
 
+    /**
+     * Handler that is also told when its request got no result, because it timed out, failed
+     * or xi-core restarted.
+     */
+    public interface TimeoutHandler extends ResponseHandler {
+        void onTimeout();
+    }
+
     public interface OnUpdateListener {
-        void onUpdate(String tab, JSONObject update);
+        void onUpdate(Update update);
     }
 
     public OnUpdateListener getUpdateListener() {
         return this.listener;
     }
 
+    /**
+     * Sets the listener for updates of tabs that weren't registered.
+     */
     public void setUpdateListener(OnUpdateListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * Routes updates of tab to listener.
+     */
+    public void registerTab(String tab, OnUpdateListener listener) {
+        this.tabs.register(tab, listener);
+    }
+
+    public void unregisterTab(String tab) {
+        this.tabs.unregister(tab);
+    }
+
+    /**
+     * While a tab is hidden its updates are collapsed, and delivered once it is shown.
+     */
+    public void setTabVisible(String tab, boolean visible) {
+        this.tabs.setVisible(tab, visible);
+    }
+
     //
 
+    public boolean hasTabs() {
+        return this.tabs.size() > 0;
+    }
+
+    /**
+     * Spawns xi-core, this blocks for as long as the process takes to start.
+     */
     public XiBridge(Context ctx) {
-        try {
-            this.process = Runtime.getRuntime().exec(
-                    ctx.getApplicationInfo().nativeLibraryDir + "/lib_xi-core_.so");
-        } catch (java.io.IOException e) {
-            Log.e("Xi", "Couldn't open dependant binary.");
-            return;
-        }
+        this(Transport.stdio(ctx.getApplicationInfo().nativeLibraryDir + "/lib_xi-core_.so"));
+    }
 
-        OutputStream stdin = this.process.getOutputStream();
-        InputStream stdout = this.process.getInputStream();
+    /**
+     * Connects to xi-core through a transport from factory, and a new one on each restart.
+     */
+    public XiBridge(final Transport.Factory factory) {
+        this.pending = new PendingRequests(new PendingRequests.Sender() {
+            @Override
+            public void send(PendingRequest request) {
+                XiBridge.this.queue.add(request.message);
+            }
 
-        this.writer = new BufferedWriter(new OutputStreamWriter(stdin));
+            @Override
+            public void drop(PendingRequest request) {}
+        }, new PendingRequests.Clock() {
+            @Override
+            public long now() {
+                return SystemClock.uptimeMillis();
+            }
+        }, MAX_IN_FLIGHT, REQUEST_TIMEOUT);
 
         this.handler = new Handler(Looper.getMainLooper()) {
             @Override
             public void handleMessage(Message message) {
-                XiBridge.this.processMessage((String) message.obj);
+                XiBridge.this.processMessage(message);
             }
         };
-        this.watcher = new WatcherThread(stdout, this.handler);
-        this.watcher.start();
+
+        this.supervisor = new Supervisor(new Supervisor.Launcher() {
+            @Override
+            public Transport launch() throws IOException {
+                return factory.open();
+            }
+        }, new Supervisor.Listener() {
+            @Override
+            public void onExit(Transport transport, int exitValue) {
+                Log.e("Xi", "xi-core exited with status " + exitValue + ".");
+                WriterThread writer = XiBridge.this.writer;
+                if (writer != null) {
+                    writer.interrupt();
+                }
+            }
+
+            @Override
+            public void onRestart(Transport transport) {
+                Message.obtain(XiBridge.this.handler, MSG_RESTART, transport).sendToTarget();
+            }
+        }, MIN_BACKOFF, MAX_BACKOFF);
+        try {
+            long start = System.nanoTime();
+            this.transport = this.supervisor.start();
+            this.spawnTime = System.nanoTime() - start;
+        } catch (java.io.IOException e) {
+            Log.e("Xi", "Couldn't start xi-core.");
+            return;
+        }
+        this.connect(this.transport);
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
-                try {
-                    // Xi will quit silently when stdin is closed
-                    XiBridge.this.process.getOutputStream().close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                XiBridge.this.supervisor.stop();
+                XiBridge.this.transport.close();
+            }
+        });
+    }
+
+    /**
+     * Starts the threads talking to xi-core over transport.
+     */
+    private void connect(final Transport transport) {
+        final int connection = this.connection;
+        this.writer = new WriterThread(this.recorder.outbound(transport.getOutputStream()), this.queue,
+                this.tracer);
+        this.writer.start();
+        this.watcher = new WatcherThread(this.recorder.inbound(transport.getInputStream()), new XiDecoder.Dispatcher() {
+            @Override
+            public boolean expectsLines(int id) {
+                // render_lines results are decoded as Line[]
+                PendingRequest request = XiBridge.this.pending.get(id);
+                return request != null && request.message.kind == OutboundMessage.RENDER_LINES;
+            }
+
+            @Override
+            public void onResponse(int id, Object result) {
+                Message.obtain(XiBridge.this.handler, MSG_RESPONSE, id, connection, result).sendToTarget();
+            }
+
+            @Override
+            public void onError(int id, Object error) {
+                Message.obtain(XiBridge.this.handler, MSG_ERROR, id, connection, error).sendToTarget();
+            }
+
+            @Override
+            public void onUpdate(Update update) {
+                XiBridge.this.tracer.mark(LatencyTracer.RECEIVED);
+                Message.obtain(XiBridge.this.handler, MSG_UPDATE, 0, connection, update).sendToTarget();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // xi-core closed its end, make sure the supervisor sees it go
+                transport.destroy();
             }
         });
+        this.watcher.start();
+    }
+
+    /**
+     * Moves over to a restarted xi-core, opening all tabs again.
+     */
+    private void restart(Transport transport) {
+        this.writer.interrupt();
+        this.sentBefore += this.writer.getSentCount();
+        this.connection += 1;
+        this.transport = transport;
+        // whatever was waiting was meant for the former process
+        this.queue.clear();
+        this.pending.abandon(this.expired);
+        List<ResponseHandler> newTabs = new ArrayList<>();
+        for (PendingRequest request : this.expired) {
+            if (request.handler instanceof NewTabHandler) {
+                newTabs.add(((NewTabHandler) request.handler).handler);
+            } else if (request.handler instanceof TimeoutHandler) {
+                ((TimeoutHandler) request.handler).onTimeout();
+            }
+        }
+        this.expired.clear();
+        this.connect(transport);
+
+        this.tabs.replay(new TabRegistry.Replayer() {
+            @Override
+            public void newTab(ResponseHandler handler) {
+                XiBridge.this.sendRequest("new_tab", new JSONObject(), handler);
+            }
 
-        this.handlers = new SparseArray<>();
+            @Override
+            public void open(String coreTab, String filename) {
+                XiBridge.this.sendCoreEdit(coreTab, "open", XiBridge.filenameParams(filename));
+            }
+
+            @Override
+            public void scroll(String coreTab, int firstLine, int lastLine) {
+                XiBridge.this.queue.add(OutboundMessage.scroll(coreTab, firstLine, lastLine));
+            }
+        });
+        // after the tabs that were open are replayed
+        for (ResponseHandler handler : newTabs) {
+            this.sendNewTab(handler);
+        }
+    }
+
+    /**
+     * Returns how many times xi-core was restarted after dying.
+     */
+    public int getRestartCount() {
+        return this.supervisor.getRestartCount();
     }
 
     /* Receive */
 
-    private boolean processMessage(String line) {
-        try {
-            JSONObject root = new JSONObject(line);
-            if (root.has("id")) {
-                int id = root.getInt("id");
-                ResponseHandler handler = this.handlers.get(id);
-                if (handler != null) {
-                    Object result = root.get("result");
-                    handler.invoke(result);
-                    this.handlers.remove(id);
+    private void processMessage(Message message) {
+        if (message.what != MSG_RESTART && message.arg2 != this.connection) {
+            // from a process that died since
+            return;
+        }
+        switch (message.what) {
+            case MSG_RESPONSE:
+                // null if it was cancelled or timed out
+                PendingRequest request = this.pending.complete(message.arg1);
+                if (request != null && request.handler != null) {
+                    request.handler.invoke(message.obj);
                 }
-            } else {
-                String method = root.getString("method");
-                JSONObject params = root.getJSONObject("params");
-                switch (method) {
-                    case "update":
-                        this.handleUpdate(params);
-                        break;
+                this.scheduleExpiry();
+                break;
+            case MSG_ERROR:
+                Log.e("Xi", "Request " + message.arg1 + " failed: " + message.obj);
+                // handlers only ever get results
+                PendingRequest failed = this.pending.complete(message.arg1);
+                if (failed != null && failed.handler instanceof TimeoutHandler) {
+                    ((TimeoutHandler) failed.handler).onTimeout();
                 }
+                this.scheduleExpiry();
+                break;
+            case MSG_UPDATE:
+                this.tracer.mark(LatencyTracer.DISPATCHED);
+                this.handleUpdate((Update) message.obj);
+                break;
+            case MSG_RESTART:
+                this.restart((Transport) message.obj);
+                break;
+        }
+    }
+
+    private void handleUpdate(Update update) {
+        long start = System.nanoTime();
+        String tab = this.tabs.fromCore(update.tab);
+        if (!tab.equals(update.tab)) {
+            update = update.withTab(tab);
+        }
+        if (!this.tabs.dispatch(update)) {
+            if (this.listener == null) {
+                return;
             }
-        } catch (JSONException e) {
-            Log.e("Xi", "Couldn't process message from back-end.");
-            e.printStackTrace();
-            return false;
+            this.listener.onUpdate(update);
         }
-        return true;
+        this.updateCount += 1;
+        this.updateTime += System.nanoTime() - start;
     }
 
-    private void handleUpdate(JSONObject params) {
-        if (this.listener == null) {
+    private final Runnable expiry = new Runnable() {
+        @Override
+        public void run() {
+            XiBridge bridge = XiBridge.this;
+            bridge.expiryScheduled.set(false);
+            bridge.pending.expire(bridge.expired);
+            for (PendingRequest request : bridge.expired) {
+                Log.w("Xi", "Request " + request.id + " timed out.");
+                if (request.handler instanceof TimeoutHandler) {
+                    ((TimeoutHandler) request.handler).onTimeout();
+                }
+            }
+            bridge.expired.clear();
+            bridge.scheduleExpiry();
+        }
+    };
+
+    private void scheduleExpiry() {
+        long deadline = this.pending.getNextDeadline();
+        if (deadline == -1 || !this.expiryScheduled.compareAndSet(false, true)) {
             return;
         }
-        String tab;
-        JSONObject update;
-        try {
-            tab = params.getString("tab");
-            update = params.getJSONObject("update");
-        } catch (JSONException e) {
-            e.printStackTrace();
+        this.handler.postAtTime(this.expiry, deadline);
+    }
+
+    /**
+     * Sets how long a request may wait for its response before being dropped, in ms.
+     */
+    public void setRequestTimeout(long timeout) {
+        this.pending.setTimeout(timeout);
+    }
+
+    /**
+     * Sets how many requests may be awaiting a response, later ones are held back.
+     */
+    public void setMaxInFlightRequests(int count) {
+        this.pending.setMaxInFlight(count);
+        this.scheduleExpiry();
+    }
+
+    public int getInFlightCount() {
+        return this.pending.getInFlightCount();
+    }
+
+    /**
+     * Returns how many requests were dropped for lack of a response.
+     */
+    public long getTimeoutCount() {
+        return this.pending.getTimeoutCount();
+    }
+
+    /**
+     * Returns how many requests were held back because the in-flight cap was reached.
+     */
+    public long getDeferredCount() {
+        return this.pending.getDeferCount();
+    }
+
+    /**
+     * Returns the tracer following input events to the screen, disabled by default.
+     */
+    public LatencyTracer getLatencyTracer() {
+        return this.tracer;
+    }
+
+    /**
+     * Records all lines to and from xi-core into out, until recording is stopped.
+     *
+     * The recording can be played back in place of xi-core with {@link Transport#replay}.
+     */
+    public void startRecording(OutputStream out) throws IOException {
+        this.recorder.start(new BufferedOutputStream(out));
+    }
+
+    /**
+     * Stops recording, and closes the stream recorded to.
+     */
+    public void stopRecording() {
+        this.recorder.stop();
+    }
+
+    /**
+     * Returns how long spawning xi-core took, in nanoseconds.
+     */
+    public long getSpawnTime() {
+        return this.spawnTime;
+    }
+
+    /**
+     * Stops xi-core, the bridge can't be used afterwards.
+     */
+    public void close() {
+        this.recorder.stop();
+        this.supervisor.stop();
+        if (this.writer == null) {
+            // xi-core couldn't be started
             return;
         }
-        this.listener.onUpdate(tab, update);
+        this.writer.interrupt();
+        // which ends the watcher once xi-core has quit
+        this.transport.close();
+    }
+
+    /**
+     * Returns the average time spent applying an update on the main thread, in nanoseconds.
+     */
+    public long getUpdateTime() {
+        if (this.updateCount == 0) {
+            return 0;
+        }
+        return this.updateTime / this.updateCount;
     }
 
     /* Send */
 
     private void send(JSONObject root) {
-        try {
-            this.writer.write(root.toString());
-            this.writer.write("\n");
-            this.writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        this.queue.add(OutboundMessage.generic(root));
+    }
+
+    /**
+     * Returns how many messages were written to xi-core.
+     */
+    public long getSentCount() {
+        WriterThread writer = this.writer;
+        return this.sentBefore + (writer == null ? 0 : writer.getSentCount());
+    }
+
+    /**
+     * Returns how many messages were merged into a pending one instead of being written.
+     */
+    public long getCoalescedCount() {
+        return this.queue.getCoalescedCount();
     }
 
     private void sendNotification(String method, JSONObject params) {
@@ -164,38 +470,49 @@ public class XiBridge {
         this.send(root);
     }
 
-    private void sendRequest(String method, JSONObject params, ResponseHandler handler) {
-        this.handlers.put(this.id, handler);
+    private PendingRequest sendRequest(String method, JSONObject params, final ResponseHandler handler) {
+        int id = this.pending.reserveId();
+        if (id == -1) {
+            Log.w("Xi", "Too many pending requests, dropped " + method + ".");
+            if (handler instanceof TimeoutHandler) {
+                this.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ((TimeoutHandler) handler).onTimeout();
+                    }
+                });
+            }
+            return null;
+        }
         JSONObject root = new JSONObject();
         try {
-            root.put("id", this.id);
+            root.put("id", id);
             root.put("method", method);
             root.put("params", params);
         } catch (JSONException e) {
             e.printStackTrace();
-            return;
+            this.pending.releaseId(id);
+            return null;
         }
-        this.id += 1;
-        this.send(root);
+        PendingRequest request = this.pending.add(id, handler, OutboundMessage.generic(root));
+        this.scheduleExpiry();
+        return request;
     }
 
     public void sendEdit(String tab, String method) {
-        this.sendEdit(tab, method, new JSONObject());
+        tab = this.tabs.toCore(tab);
+        if (tab != null) {
+            this.queue.add(OutboundMessage.edit(tab, method));
+        }
     }
     public void sendEdit(String tab, String method, JSONObject editParams) {
-        JSONObject params = new JSONObject();
-        try {
-            params.put("method", method);
-            params.put("tab", tab);
-            params.put("params", editParams);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return;
+        tab = this.tabs.toCore(tab);
+        if (tab != null) {
+            this.sendCoreEdit(tab, method, editParams);
         }
-        this.sendNotification("edit", params);
     }
 
-    private void sendEditArray(String tab, String method, JSONArray editParams) {
+    private void sendCoreEdit(String tab, String method, JSONObject editParams) {
         JSONObject params = new JSONObject();
         try {
             params.put("method", method);
@@ -208,27 +525,43 @@ public class XiBridge {
         this.sendNotification("edit", params);
     }
 
-    private void sendEditRequest(String tab, String method, JSONObject editParams, ResponseHandler handler) {
-        JSONObject params = new JSONObject();
-        try {
-            params.put("method", method);
-            params.put("tab", tab);
-            params.put("params", editParams);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return;
-        }
-        this.sendRequest("edit", params, handler);
+    public PendingRequest sendNewTab(ResponseHandler handler) {
+        return this.sendRequest("new_tab", new JSONObject(), new NewTabHandler(handler));
     }
 
-    public void sendNewTab(ResponseHandler handler) {
-        this.sendRequest("new_tab", new JSONObject(), handler);
+    /**
+     * Registers the tab made before handing it over. A new_tab lost to a restart is sent
+     * again, the handler wouldn't hear about it otherwise.
+     */
+    private class NewTabHandler implements TimeoutHandler {
+        final ResponseHandler handler;
+
+        NewTabHandler(ResponseHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void invoke(Object result) {
+            this.handler.invoke(XiBridge.this.tabs.add((String) result));
+        }
+
+        @Override
+        public void onTimeout() {
+            if (this.handler instanceof TimeoutHandler) {
+                ((TimeoutHandler) this.handler).onTimeout();
+            }
+        }
     }
 
     public void sendDeleteTab(String tab) {
+        String coreTab = this.tabs.toCore(tab);
+        this.tabs.remove(tab);
+        if (coreTab == null) {
+            return;
+        }
         JSONObject params = new JSONObject();
         try {
-            params.put("tab", tab);
+            params.put("tab", coreTab);
         } catch (JSONException e) {
             e.printStackTrace();
             return;
@@ -237,98 +570,170 @@ public class XiBridge {
     }
 
     public void sendInsert(String tab, String chars) {
-        JSONObject params = new JSONObject();
-        try {
-            params.put("chars", chars);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return;
+        tab = this.tabs.toCore(tab);
+        if (tab != null) {
+            this.queue.add(OutboundMessage.insert(tab, chars));
         }
-        this.sendEdit(tab, "insert", params);
     }
 
-    public void sendOpen(String tab, String filename) {
+    private static JSONObject filenameParams(String filename) {
         JSONObject params = new JSONObject();
         try {
             params.put("filename", filename);
         } catch (JSONException e) {
             e.printStackTrace();
-            return;
         }
-        this.sendEdit(tab, "open", params);
+        return params;
+    }
+
+    public void sendOpen(String tab, String filename) {
+        this.tabs.setFilename(tab, filename);
+        this.sendEdit(tab, "open", filenameParams(filename));
     }
 
     public void sendSave(String tab, String filename) {
-        JSONObject params = new JSONObject();
-        try {
-            params.put("filename", filename);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return;
-        }
-        this.sendEdit(tab, "save", params);
+        this.tabs.setFilename(tab, filename);
+        this.sendEdit(tab, "save", filenameParams(filename));
     }
 
     public void sendScroll(String tab, int firstLine, int lastLine) {
-        JSONArray params = new JSONArray();
-        params.put(firstLine);
-        params.put(lastLine);
-        this.sendEditArray(tab, "scroll", params);
+        this.tabs.setScroll(tab, firstLine, lastLine);
+        tab = this.tabs.toCore(tab);
+        if (tab != null) {
+            this.queue.add(OutboundMessage.scroll(tab, firstLine, lastLine));
+        }
     }
 
     public void sendClick(String tab, int line, int column, int modifiers, int clickCount) {
-        JSONArray params = new JSONArray();
-        params.put(line);
-        params.put(column);
-        params.put(modifiers);
-        params.put(clickCount);
-        this.sendEditArray(tab, "click", params);
+        tab = this.tabs.toCore(tab);
+        if (tab != null) {
+            this.queue.add(OutboundMessage.click(tab, line, column, modifiers, clickCount));
+        }
     }
 
     public void sendDrag(String tab, int line, int column, int modifiers) {
-        JSONArray params = new JSONArray();
-        params.put(line);
-        params.put(column);
-        params.put(modifiers);
-        this.sendEditArray(tab, "drag", params);
+        tab = this.tabs.toCore(tab);
+        if (tab != null) {
+            this.queue.add(OutboundMessage.drag(tab, line, column, modifiers));
+        }
     }
 
-    public void sendRenderLines(String tab, int firstLine, int lastLine, ResponseHandler handler) {
-        JSONObject params = new JSONObject();
-        try {
-            params.put("first_line", firstLine);
-            params.put("last_line", lastLine);
-        } catch (JSONException e) {
-            e.printStackTrace();
-            return;
+    /**
+     * Requests lines [firstLine, lastLine), handler receives them as a Line[].
+     *
+     * Returns null if a restarted xi-core hasn't opened tab again yet, or if too many requests
+     * are pending already.
+     */
+    public PendingRequest sendRenderLines(String tab, int firstLine, int lastLine, ResponseHandler handler) {
+        tab = this.tabs.toCore(tab);
+        if (tab == null) {
+            // not open yet in a restarted xi-core
+            return null;
+        }
+        int id = this.pending.reserveId();
+        if (id == -1) {
+            // xi-core is behind, the lines will be asked for again
+            Log.w("Xi", "Too many pending requests, dropped render_lines.");
+            return null;
         }
-        this.sendEditRequest(tab, "render_lines", params, handler);
+        PendingRequest request = this.pending.add(id, handler,
+                OutboundMessage.renderLines(id, tab, firstLine, lastLine));
+        this.scheduleExpiry();
+        return request;
     }
 }
 
 class WatcherThread extends Thread {
-    private BufferedReader reader;
-    private Handler handler;
+    private XiDecoder decoder;
+    private Runnable onEnd;
 
-    public WatcherThread(InputStream is, Handler handler) {
-        this.reader = new BufferedReader(new InputStreamReader(is));
-        this.handler = handler;
+    public WatcherThread(InputStream is, XiDecoder.Dispatcher dispatcher, Runnable onEnd) {
+        this.decoder = new XiDecoder(is, dispatcher);
+        this.onEnd = onEnd;
     }
 
     public void run() {
-        Message message;
-        String line;
         while (!this.isInterrupted()) {
             try {
-                line = this.reader.readLine();
-                message = Message.obtain();
-                message.obj = line;
-                this.handler.sendMessage(message);
+                if (!this.decoder.next()) {
+                    Log.e("Xi", "[Watcher] End of stream.");
+                    break;
+                }
+            } catch (JSONException e) {
+                Log.e("Xi", "Couldn't process message from back-end.");
+                e.printStackTrace();
+                try {
+                    this.decoder.recover();
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                    break;
+                }
             } catch (IOException e) {
+                // the stream is broken, there is nothing more to read
                 Log.e("Xi", "[Watcher] IO error.");
                 e.printStackTrace();
+                break;
             }
         }
+        this.onEnd.run();
         Log.v("Xi", "[Watcher] Thread suspended!");
     }
-}
\ No newline at end of file
+}
+
+class WriterThread extends Thread {
+    // Flush at most once per frame
+    private static final long FRAME_NANOS = 16000000;
+    private OutputStream os;
+    private OutboundQueue queue;
+    private XiEncoder encoder;
+    private LatencyTracer tracer;
+    // Only counts batches that were flushed, those whose write failed are dropped
+    private volatile long sent = 0;
+
+    public WriterThread(OutputStream os, OutboundQueue queue, LatencyTracer tracer) {
+        this.os = os;
+        this.queue = queue;
+        this.encoder = new XiEncoder();
+        this.tracer = tracer;
+    }
+
+    public void run() {
+        List<OutboundMessage> batch = new ArrayList<>();
+        long lastFlush = System.nanoTime() - FRAME_NANOS;
+        while (!this.isInterrupted()) {
+            try {
+                this.queue.await();
+                long delay = lastFlush + FRAME_NANOS - System.nanoTime();
+                if (delay > 0) {
+                    // let more messages pile up and coalesce
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                }
+                this.queue.drainTo(batch);
+                for (OutboundMessage message : batch) {
+                    message.encode(this.encoder);
+                }
+                try {
+                    this.encoder.writeTo(this.os);
+                    this.os.flush();
+                } catch (IOException e) {
+                    Log.e("Xi", "[Writer] IO error, dropped " + batch.size() + " messages.");
+                    e.printStackTrace();
+                    continue;
+                }
+                this.tracer.mark(LatencyTracer.SENT);
+                this.sent += batch.size();
+                lastFlush = System.nanoTime();
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                this.encoder.reset();
+                batch.clear();
+            }
+        }
+        Log.v("Xi", "[Writer] Thread suspended!");
+    }
+
+    long getSentCount() {
+        return this.sent;
+    }
+}
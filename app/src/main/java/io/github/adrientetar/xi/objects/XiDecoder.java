@@ -0,0 +1,345 @@
+package io.github.adrientetar.xi.objects;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming decoder for messages coming from xi-core.
+ *
+ * The RPC envelope is walked with a {@link JsonPullParser} and dispatched as soon as it is
+ * read; only response results and update payloads are materialized.
+ */
+
+class XiDecoder {
+    private final JsonPullParser parser;
+    private final Dispatcher dispatcher;
+
+    private static final Line[] NO_LINES = {};
+    // Scratch space for annotations of the line being read
+    private int[] types = new int[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] colors = new int[16];
+    private int[] fontStyles = new int[16];
+
+    interface Dispatcher {
+        // Whether the result of request id is a list of lines
+        boolean expectsLines(int id);
+        void onResponse(int id, Object result);
+        // A response with no result, error is what came instead, if anything
+        void onError(int id, Object error);
+        void onUpdate(Update update);
+    }
+
+    XiDecoder(InputStream is, Dispatcher dispatcher) {
+        this.parser = new JsonPullParser(is);
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Reads and dispatches one message, returns false once the stream is exhausted.
+     */
+    boolean next() throws IOException, JSONException {
+        JsonPullParser parser = this.parser;
+        if (parser.peek() == JsonPullParser.END_DOCUMENT) {
+            return false;
+        }
+        boolean hasId = false;
+        int id = 0;
+        boolean hasResult = false;
+        Object result = null;
+        Object error = null;
+        String method = null;
+        Object params = null;
+        String tab = null;
+        Update update = null;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            switch (parser.nextName()) {
+                case "id":
+                    hasId = true;
+                    id = parser.nextInt();
+                    break;
+                case "result":
+                    hasResult = true;
+                    if (hasId && this.dispatcher.expectsLines(id)) {
+                        result = this.readLines();
+                    } else {
+                        result = this.readValue();
+                    }
+                    break;
+                case "error":
+                    error = this.readValue();
+                    break;
+                case "method":
+                    method = parser.nextString();
+                    break;
+                case "params":
+                    if ("update".equals(method)) {
+                        parser.beginObject();
+                        while (parser.hasNext()) {
+                            switch (parser.nextName()) {
+                                case "tab":
+                                    tab = parser.nextString();
+                                    break;
+                                case "update":
+                                    update = this.readUpdate(tab);
+                                    break;
+                                default:
+                                    parser.skipValue();
+                            }
+                        }
+                        parser.endObject();
+                    } else {
+                        // method may come later, keep it around
+                        params = this.readValue();
+                    }
+                    break;
+                default:
+                    parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        if (hasId && !hasResult) {
+            this.dispatcher.onError(id, error);
+        } else if (hasId) {
+            if (result instanceof JSONArray && this.dispatcher.expectsLines(id)) {
+                // result came before id
+                result = makeLines((JSONArray) result);
+            }
+            this.dispatcher.onResponse(id, result);
+        } else if ("update".equals(method)) {
+            if (params instanceof JSONObject) {
+                update = makeUpdate((JSONObject) params);
+            } else if (update != null && update.tab == null) {
+                // tab came after the update payload
+                update = new Update(tab, update.height, update.firstLine, update.lines,
+                        update.scrollToLine, update.scrollToColumn);
+            }
+            if (update == null || update.tab == null) {
+                throw new JSONException("Malformed update");
+            }
+            this.dispatcher.onUpdate(update);
+        }
+        return true;
+    }
+
+    /**
+     * Skips past a malformed message.
+     */
+    void recover() throws IOException {
+        this.parser.recover();
+    }
+
+    /* Updates */
+
+    private Update readUpdate(String tab) throws IOException, JSONException {
+        JsonPullParser parser = this.parser;
+        int height = -1;
+        int firstLine = 0;
+        Line[] lines = NO_LINES;
+        int scrollToLine = -1;
+        int scrollToColumn = -1;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            switch (parser.nextName()) {
+                case "height":
+                    height = parser.nextInt();
+                    break;
+                case "first_line":
+                    firstLine = parser.nextInt();
+                    break;
+                case "lines":
+                    lines = this.readLines();
+                    break;
+                case "scrollto":
+                    parser.beginArray();
+                    scrollToLine = parser.nextInt();
+                    scrollToColumn = parser.nextInt();
+                    parser.endArray();
+                    break;
+                default:
+                    parser.skipValue();
+            }
+        }
+        parser.endObject();
+        return new Update(tab, height, firstLine, lines, scrollToLine, scrollToColumn);
+    }
+
+    private static Update makeUpdate(JSONObject params) throws JSONException {
+        JSONObject update = params.getJSONObject("update");
+        int scrollToLine = -1;
+        int scrollToColumn = -1;
+        JSONArray scrollTo = update.optJSONArray("scrollto");
+        if (scrollTo != null) {
+            scrollToLine = scrollTo.getInt(0);
+            scrollToColumn = scrollTo.getInt(1);
+        }
+        JSONArray lines = update.optJSONArray("lines");
+        return new Update(params.getString("tab"), update.optInt("height", -1),
+                update.optInt("first_line", 0), lines != null ? makeLines(lines) : NO_LINES,
+                scrollToLine, scrollToColumn);
+    }
+
+    /* Lines */
+
+    private Line[] readLines() throws IOException, JSONException {
+        JsonPullParser parser = this.parser;
+        Line[] lines = new Line[16];
+        int count = 0;
+        parser.beginArray();
+        while (parser.hasNext()) {
+            if (count == lines.length) {
+                lines = Arrays.copyOf(lines, count * 2);
+            }
+            lines[count++] = this.readLine();
+        }
+        parser.endArray();
+        return Arrays.copyOf(lines, count);
+    }
+
+    // [text, ["cursor", col], ["fg", start, end, color, font_style], ["sel", start, end], ...]
+    private Line readLine() throws IOException, JSONException {
+        JsonPullParser parser = this.parser;
+        int cursor = -1;
+        int count = 0;
+        parser.beginArray();
+        String text = parser.nextString();
+        while (parser.hasNext()) {
+            parser.beginArray();
+            String type = parser.nextSymbol();
+            switch (type) {
+                case "cursor":
+                    cursor = parser.nextInt();
+                    break;
+                case "fg":
+                case "sel":
+                    if (count == this.types.length) {
+                        this.growAnnotations();
+                    }
+                    this.starts[count] = parser.nextInt();
+                    this.ends[count] = parser.nextInt();
+                    if (type.equals("fg")) {
+                        this.types[count] = Annotation.FG;
+                        this.colors[count] = parser.nextInt();
+                        this.fontStyles[count] = parser.nextInt();
+                    } else {
+                        this.types[count] = Annotation.SEL;
+                        this.colors[count] = 0;
+                        this.fontStyles[count] = 0;
+                    }
+                    count++;
+                    break;
+            }
+            while (parser.hasNext()) {
+                parser.skipValue();
+            }
+            parser.endArray();
+        }
+        parser.endArray();
+        return new Line(text, cursor, Arrays.copyOf(this.types, count),
+                Arrays.copyOf(this.starts, count), Arrays.copyOf(this.ends, count),
+                Arrays.copyOf(this.colors, count), Arrays.copyOf(this.fontStyles, count));
+    }
+
+    private void growAnnotations() {
+        int length = this.types.length * 2;
+        this.types = Arrays.copyOf(this.types, length);
+        this.starts = Arrays.copyOf(this.starts, length);
+        this.ends = Arrays.copyOf(this.ends, length);
+        this.colors = Arrays.copyOf(this.colors, length);
+        this.fontStyles = Arrays.copyOf(this.fontStyles, length);
+    }
+
+    static Line[] makeLines(JSONArray lines) throws JSONException {
+        Line[] result = new Line[lines.length()];
+        for (int i = 0; i < result.length; i++) {
+            JSONArray line = lines.getJSONArray(i);
+            int cursor = -1;
+            int count = 0;
+            int[] types = new int[line.length()];
+            int[] starts = new int[line.length()];
+            int[] ends = new int[line.length()];
+            int[] colors = new int[line.length()];
+            int[] fontStyles = new int[line.length()];
+            for (int j = 1; j < line.length(); j++) {
+                JSONArray annotation = line.getJSONArray(j);
+                switch (annotation.getString(0)) {
+                    case "cursor":
+                        cursor = annotation.getInt(1);
+                        break;
+                    case "fg":
+                        types[count] = Annotation.FG;
+                        starts[count] = annotation.getInt(1);
+                        ends[count] = annotation.getInt(2);
+                        colors[count] = annotation.getInt(3);
+                        fontStyles[count] = annotation.getInt(4);
+                        count++;
+                        break;
+                    case "sel":
+                        types[count] = Annotation.SEL;
+                        starts[count] = annotation.getInt(1);
+                        ends[count] = annotation.getInt(2);
+                        count++;
+                        break;
+                }
+            }
+            result[i] = new Line(line.getString(0), cursor, Arrays.copyOf(types, count),
+                    Arrays.copyOf(starts, count), Arrays.copyOf(ends, count),
+                    Arrays.copyOf(colors, count), Arrays.copyOf(fontStyles, count));
+        }
+        return result;
+    }
+
+    /* Values */
+
+    private Object readValue() throws IOException, JSONException {
+        JsonPullParser parser = this.parser;
+        switch (parser.peek()) {
+            case JsonPullParser.BEGIN_OBJECT:
+                return this.readObject();
+            case JsonPullParser.BEGIN_ARRAY:
+                return this.readArray();
+            case JsonPullParser.STRING:
+                return parser.nextString();
+            case JsonPullParser.NUMBER:
+                return parser.nextNumber();
+            case JsonPullParser.BOOLEAN:
+                return parser.nextBoolean();
+            case JsonPullParser.NULL:
+                parser.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new JSONException("Expected a value");
+        }
+    }
+
+    private JSONObject readObject() throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        this.parser.beginObject();
+        while (this.parser.hasNext()) {
+            String name = this.parser.nextName();
+            object.put(name, this.readValue());
+        }
+        this.parser.endObject();
+        return object;
+    }
+
+    private JSONArray readArray() throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        this.parser.beginArray();
+        while (this.parser.hasNext()) {
+            array.put(this.readValue());
+        }
+        this.parser.endArray();
+        return array;
+    }
+}
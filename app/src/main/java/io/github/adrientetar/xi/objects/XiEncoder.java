@@ -0,0 +1,280 @@
+package io.github.adrientetar.xi.objects;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes messages for xi-core into a reusable byte buffer.
+ *
+ * Fixed-shape edits are encoded directly, without going through JSONObject. The output is
+ * byte-for-byte what org.json produces for the same message, keys in insertion order.
+ */
+
+class XiEncoder {
+    private static final byte[] ID = ascii("{\"id\":");
+    private static final byte[] EDIT = ascii("\"method\":\"edit\",\"params\":{\"method\":\"");
+    private static final byte[] TAB = ascii("\",\"tab\":\"");
+    private static final byte[] PARAMS = ascii("\",\"params\":");
+    private static final byte[] FIRST_LINE = ascii("{\"first_line\":");
+    private static final byte[] LAST_LINE = ascii(",\"last_line\":");
+    private static final byte[] CHARS = ascii("{\"chars\":\"");
+    private static final byte[] DIGITS = ascii("0123456789abcdef");
+
+    private byte[] buffer;
+    private int count = 0;
+
+    XiEncoder() {
+        this(4096);
+    }
+
+    XiEncoder(int size) {
+        this.buffer = new byte[size];
+    }
+
+    /* Messages */
+
+    // {"method":"edit","params":{"method":"<method>","tab":"<tab>","params":[<args>]}}
+    void editArray(String tab, String method, int a, int b) {
+        this.editHeader(tab, method);
+        this.write('[');
+        this.writeInt(a);
+        this.write(',');
+        this.writeInt(b);
+        this.editFooter(']');
+    }
+
+    void editArray(String tab, String method, int a, int b, int c) {
+        this.editHeader(tab, method);
+        this.write('[');
+        this.writeInt(a);
+        this.write(',');
+        this.writeInt(b);
+        this.write(',');
+        this.writeInt(c);
+        this.editFooter(']');
+    }
+
+    void editArray(String tab, String method, int a, int b, int c, int d) {
+        this.editHeader(tab, method);
+        this.write('[');
+        this.writeInt(a);
+        this.write(',');
+        this.writeInt(b);
+        this.write(',');
+        this.writeInt(c);
+        this.write(',');
+        this.writeInt(d);
+        this.editFooter(']');
+    }
+
+    // {"method":"edit","params":{"method":"<method>","tab":"<tab>","params":{}}}
+    void edit(String tab, String method) {
+        this.editHeader(tab, method);
+        this.write('{');
+        this.editFooter('}');
+    }
+
+    // {"method":"edit","params":{"method":"insert","tab":"<tab>","params":{"chars":"<chars>"}}}
+    void insert(String tab, CharSequence chars) {
+        this.editHeader(tab, "insert");
+        this.write(CHARS);
+        this.writeEscaped(chars);
+        this.write('"');
+        this.editFooter('}');
+    }
+
+    // {"id":<id>,"method":"edit","params":{"method":"render_lines","tab":"<tab>","params":{"first_line":<first>,"last_line":<last>}}}
+    void renderLines(int id, String tab, int firstLine, int lastLine) {
+        this.write(ID);
+        this.writeInt(id);
+        this.write(',');
+        this.editBody(tab, "render_lines");
+        this.write(FIRST_LINE);
+        this.writeInt(firstLine);
+        this.write(LAST_LINE);
+        this.writeInt(lastLine);
+        this.editFooter('}');
+    }
+
+    /**
+     * Appends an already serialized message.
+     */
+    void raw(String json) {
+        this.writeUtf8(json);
+        this.write('\n');
+    }
+
+    /* Buffer */
+
+    int size() {
+        return this.count;
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        os.write(this.buffer, 0, this.count);
+    }
+
+    void reset() {
+        this.count = 0;
+    }
+
+    /* Internals */
+
+    private void editHeader(String tab, String method) {
+        this.write('{');
+        this.editBody(tab, method);
+    }
+
+    private void editBody(String tab, String method) {
+        this.write(EDIT);
+        this.writeEscaped(method);
+        this.write(TAB);
+        this.writeEscaped(tab);
+        this.write(PARAMS);
+    }
+
+    private void editFooter(char close) {
+        this.write(close);
+        this.write('}');
+        this.write('}');
+        this.write('\n');
+    }
+
+    private void ensure(int extra) {
+        if (this.count + extra > this.buffer.length) {
+            byte[] buffer = new byte[Math.max(this.buffer.length * 2, this.count + extra)];
+            System.arraycopy(this.buffer, 0, buffer, 0, this.count);
+            this.buffer = buffer;
+        }
+    }
+
+    private void write(char c) {
+        this.ensure(1);
+        this.buffer[this.count++] = (byte) c;
+    }
+
+    private void write(byte[] bytes) {
+        this.ensure(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.count, bytes.length);
+        this.count += bytes.length;
+    }
+
+    private void writeInt(int value) {
+        this.ensure(11);
+        if (value < 0) {
+            this.buffer[this.count++] = '-';
+            if (value == Integer.MIN_VALUE) {
+                this.write(ascii("2147483648"));
+                return;
+            }
+            value = -value;
+        }
+        int end = this.count + stringSize(value);
+        int pos = end;
+        do {
+            this.buffer[--pos] = DIGITS[value % 10];
+            value /= 10;
+        } while (value != 0);
+        this.count = end;
+    }
+
+    private static int stringSize(int value) {
+        int size = 1;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    // Same escapes as org.json's JSONStringer
+    private void writeEscaped(CharSequence s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    this.write('\\');
+                    this.write(c);
+                    break;
+                case '\t':
+                    this.write('\\');
+                    this.write('t');
+                    break;
+                case '\b':
+                    this.write('\\');
+                    this.write('b');
+                    break;
+                case '\n':
+                    this.write('\\');
+                    this.write('n');
+                    break;
+                case '\r':
+                    this.write('\\');
+                    this.write('r');
+                    break;
+                case '\f':
+                    this.write('\\');
+                    this.write('f');
+                    break;
+                default:
+                    if (c <= 0x1f) {
+                        this.ensure(6);
+                        this.buffer[this.count++] = '\\';
+                        this.buffer[this.count++] = 'u';
+                        this.buffer[this.count++] = '0';
+                        this.buffer[this.count++] = '0';
+                        this.buffer[this.count++] = DIGITS[c >> 4];
+                        this.buffer[this.count++] = DIGITS[c & 0xf];
+                    } else {
+                        i = this.writeChar(s, i, c);
+                    }
+            }
+        }
+    }
+
+    private void writeUtf8(CharSequence s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            i = this.writeChar(s, i, s.charAt(i));
+        }
+    }
+
+    // Encodes the char at i as UTF-8, returns the index of the last char consumed.
+    private int writeChar(CharSequence s, int i, char c) {
+        this.ensure(4);
+        byte[] buffer = this.buffer;
+        if (c < 0x80) {
+            buffer[this.count++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[this.count++] = (byte) (0xc0 | (c >> 6));
+            buffer[this.count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer[this.count++] = (byte) (0xf0 | (codePoint >> 18));
+            buffer[this.count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buffer[this.count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[this.count++] = (byte) (0x80 | (codePoint & 0x3f));
+            return i + 1;
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            // unpaired, OutputStreamWriter would substitute it too
+            buffer[this.count++] = '?';
+        } else {
+            buffer[this.count++] = (byte) (0xe0 | (c >> 12));
+            buffer[this.count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[this.count++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import io.github.adrientetar.xi.objects.Line;
+
+/**
+ * Line drawn through a {@link StaticLayout}, works for any text.
+ */
+
+class LayoutLine implements RenderedLine {
+    private final Line line;
+    private final StaticLayout layout;
+
+    LayoutLine(Line line, StaticLayout layout) {
+        this.line = line;
+        this.layout = layout;
+    }
+
+    @Override
+    public void draw(Canvas canvas, Path highlight, Paint highlightPaint, TextPaint workPaint) {
+        this.layout.draw(canvas, highlight, highlightPaint, 0);
+    }
+
+    @Override
+    public float getX(int column) {
+        return this.layout.getPrimaryHorizontal(column);
+    }
+
+    @Override
+    public int getColumn(float x) {
+        return this.layout.getOffsetForHorizontal(0, x);
+    }
+
+    @Override
+    public int getWidth() {
+        return this.layout.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return this.layout.getLineBottom(0) - this.layout.getLineTop(0);
+    }
+
+    @Override
+    public int length() {
+        return this.layout.getText().length();
+    }
+
+    @Override
+    public Line getLine() {
+        return this.line;
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.CharacterStyle;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.adrientetar.xi.objects.Annotation;
+import io.github.adrientetar.xi.objects.Line;
+
+/**
+ * Builds line layouts on a background pool and hands them back to the main thread.
+ *
+ * A batch is split in chunks laid out in parallel, and delivered in one go once all chunks
+ * are done. Batches carry the generation of the view they were made for, so that the view
+ * can drop results that an update made stale in the meantime.
+ */
+
+class LayoutPipeline {
+    private static final int CHUNK = 16;
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "XiLayout-" + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // Spans are interned per worker thread and shared by the layouts it makes
+    private static final ThreadLocal<Spans> SPANS = new ThreadLocal<Spans>() {
+        @Override
+        protected Spans initialValue() {
+            return new Spans();
+        }
+    };
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Callback callback;
+
+    interface Callback {
+        void onLayouts(int generation, int firstLine, RenderedLine[] layouts);
+    }
+
+    private static class Spans {
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        final StyleTable<CharacterStyle> fg = new StyleTable<>(TextStyleSpan.FACTORY);
+        final StyleTable<BackgroundColorSpan> sel = new StyleTable<>(new StyleTable.Factory<BackgroundColorSpan>() {
+            @Override
+            public BackgroundColorSpan create(int color, int fontStyle) {
+                return new BackgroundColorSpan(color);
+            }
+        });
+    }
+
+    LayoutPipeline(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Lays out lines[start, end), the first of which is line number firstLine.
+     *
+     * With monospace set, lines that qualify are drawn as {@link MonospaceLine} instead of
+     * going through StaticLayout.
+     */
+    void submit(final int generation, final int firstLine, final Line[] lines, int start, int end,
+                final TextPaint paint, final int width, final int selColor, final boolean monospace) {
+        if (start >= end) {
+            return;
+        }
+        final RenderedLine[] layouts = new RenderedLine[end - start];
+        final AtomicInteger pending = new AtomicInteger((layouts.length + CHUNK - 1) / CHUNK);
+        final int offset = start;
+        for (int chunk = start; chunk < end; chunk += CHUNK) {
+            final int chunkStart = chunk;
+            final int chunkEnd = Math.min(chunk + CHUNK, end);
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // StaticLayout keeps its paint around, don't share it with other threads
+                    TextPaint chunkPaint = new TextPaint(paint);
+                    Spans spans = null;
+                    Paint.FontMetricsInt metrics = chunkPaint.getFontMetricsInt();
+                    float cellWidth = chunkPaint.measureText("M");
+                    for (int i = chunkStart; i < chunkEnd; i++) {
+                        Line line = lines[i];
+                        if (monospace && MonospaceLine.canRender(line)) {
+                            layouts[i - offset] = new MonospaceLine(line, cellWidth, width,
+                                    metrics.descent - metrics.ascent, -metrics.ascent,
+                                    chunkPaint.getColor(), selColor);
+                        } else {
+                            if (spans == null) {
+                                spans = SPANS.get();
+                            }
+                            layouts[i - offset] = new LayoutLine(line,
+                                    makeLayout(line, spans, chunkPaint, width, selColor));
+                        }
+                    }
+                    if (pending.decrementAndGet() == 0) {
+                        LayoutPipeline.this.deliver(generation, firstLine + offset, layouts);
+                    }
+                }
+            });
+        }
+    }
+
+    private void deliver(final int generation, final int firstLine, final RenderedLine[] layouts) {
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                LayoutPipeline.this.callback.onLayouts(generation, firstLine, layouts);
+            }
+        });
+    }
+
+    private static StaticLayout makeLayout(Line line, Spans spans, TextPaint paint, int width,
+                                           int selColor) {
+        SpannableStringBuilder builder = spans.builder;
+        builder.clear();
+        builder.clearSpans();
+        builder.append(line.text);
+        spans.fg.nextLine();
+        spans.sel.nextLine();
+        for (int j = 0; j < line.getAnnotationCount(); j++) {
+            Object span;
+            switch (line.getType(j)) {
+                case Annotation.FG:
+                    span = spans.fg.get(line.getColor(j), line.getFontStyle(j));
+                    break;
+                case Annotation.SEL:
+                    span = spans.sel.get(selColor, 0);
+                    break;
+                default:
+                    continue;
+            }
+            builder.setSpan(span, line.getStart(j), line.getEnd(j), Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
+        }
+        return new StaticLayout(
+                SpannableString.valueOf(builder), paint, width,
+                Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
+    }
+}
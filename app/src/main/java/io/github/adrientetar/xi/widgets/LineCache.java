@@ -0,0 +1,154 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.util.SparseArray;
+
+/**
+ * Rendered lines keyed by absolute line number.
+ *
+ * Lines are evicted least-recently-used first once the memory budget is exceeded, and the
+ * owner trims whatever falls out of the window around its viewport.
+ */
+
+class LineCache {
+    // Rough per-line overhead of a layout and its spans, in bytes
+    private static final int LAYOUT_OVERHEAD = 512;
+
+    private final SparseArray<Entry> entries = new SparseArray<>();
+    // LRU list, head is the eldest
+    private Entry head = null;
+    private Entry tail = null;
+    private int size = 0;
+    private int maxSize;
+    private long hits = 0;
+    private long misses = 0;
+
+    private static class Entry {
+        final int line;
+        final RenderedLine layout;
+        final int size;
+        Entry prev;
+        Entry next;
+
+        Entry(int line, RenderedLine layout, int size) {
+            this.line = line;
+            this.layout = layout;
+            this.size = size;
+        }
+    }
+
+    LineCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the layout of line and marks it recently used, counting a hit or a miss.
+     */
+    RenderedLine get(int line) {
+        Entry entry = this.entries.get(line);
+        if (entry == null) {
+            this.misses += 1;
+            return null;
+        }
+        this.hits += 1;
+        this.unlink(entry);
+        this.append(entry);
+        return entry.layout;
+    }
+
+    /**
+     * Returns the layout of line without touching LRU order or stats, for drawing.
+     */
+    RenderedLine peek(int line) {
+        Entry entry = this.entries.get(line);
+        return entry != null ? entry.layout : null;
+    }
+
+    boolean contains(int line) {
+        return this.entries.get(line) != null;
+    }
+
+    void put(int line, RenderedLine layout) {
+        this.remove(line);
+        Entry entry = new Entry(line, layout, LAYOUT_OVERHEAD + 2 * layout.length());
+        this.entries.put(line, entry);
+        this.append(entry);
+        this.size += entry.size;
+        while (this.size > this.maxSize && this.head != null && this.head != entry) {
+            this.remove(this.head.line);
+        }
+    }
+
+    void remove(int line) {
+        Entry entry = this.entries.get(line);
+        if (entry != null) {
+            this.entries.remove(line);
+            this.unlink(entry);
+            this.size -= entry.size;
+        }
+    }
+
+    /**
+     * Drops all lines outside of [start, end).
+     */
+    void retain(int start, int end) {
+        // keys are sorted, trim from both ends
+        while (this.entries.size() > 0 && this.entries.keyAt(0) < start) {
+            this.remove(this.entries.keyAt(0));
+        }
+        while (this.entries.size() > 0 && this.entries.keyAt(this.entries.size() - 1) >= end) {
+            this.remove(this.entries.keyAt(this.entries.size() - 1));
+        }
+    }
+
+    void clear() {
+        this.entries.clear();
+        this.head = this.tail = null;
+        this.size = 0;
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        while (this.size > this.maxSize && this.head != null) {
+            this.remove(this.head.line);
+        }
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    long getHitCount() {
+        return this.hits;
+    }
+
+    long getMissCount() {
+        return this.misses;
+    }
+
+    /* LRU list */
+
+    private void append(Entry entry) {
+        entry.prev = this.tail;
+        entry.next = null;
+        if (this.tail != null) {
+            this.tail.next = entry;
+        } else {
+            this.head = entry;
+        }
+        this.tail = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            this.head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            this.tail = entry.prev;
+        }
+        entry.prev = entry.next = null;
+    }
+}
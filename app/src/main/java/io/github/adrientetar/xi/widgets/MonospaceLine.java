@@ -0,0 +1,140 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.text.TextPaint;
+
+import io.github.adrientetar.xi.objects.Annotation;
+import io.github.adrientetar.xi.objects.Line;
+
+/**
+ * Line drawn straight on the canvas, for text where every char takes one cell.
+ *
+ * Style runs come from the fg annotations, and column/x mapping is plain arithmetic.
+ * Use {@link #canRender} to check a line qualifies, and {@link LayoutLine} otherwise.
+ */
+
+class MonospaceLine implements RenderedLine {
+    private static final float ITALIC_SKEW = -0.25f;
+
+    private final Line line;
+    // Length without the trailing newline
+    private final int length;
+    private final float cellWidth;
+    private final int width;
+    private final int height;
+    private final float baseline;
+    private final int defaultColor;
+    private final int selColor;
+
+    MonospaceLine(Line line, float cellWidth, int width, int height, float baseline,
+                  int defaultColor, int selColor) {
+        this.line = line;
+        int length = line.text.length();
+        if (length > 0 && line.text.charAt(length - 1) == '\n') {
+            length -= 1;
+        }
+        this.length = length;
+        this.cellWidth = cellWidth;
+        this.width = width;
+        this.height = height;
+        this.baseline = baseline;
+        this.defaultColor = defaultColor;
+        this.selColor = selColor;
+    }
+
+    /**
+     * Whether all chars of the line map to one cell of a monospace font. Tabs, combining
+     * marks, surrogates and scripts beyond Latin go through the layout path.
+     */
+    static boolean canRender(Line line) {
+        String text = line.text;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if ((c < 0x20 || c > 0x7e) && (c < 0xa0 || c > 0x17f) && !(c == '\n' && i == length - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void draw(Canvas canvas, Path highlight, Paint highlightPaint, TextPaint workPaint) {
+        Line line = this.line;
+        int count = line.getAnnotationCount();
+
+        // selection goes under the text
+        workPaint.setStyle(Paint.Style.FILL);
+        workPaint.setColor(this.selColor);
+        for (int i = 0; i < count; i++) {
+            if (line.getType(i) == Annotation.SEL) {
+                canvas.drawRect(this.getX(line.getStart(i)), 0, this.getX(line.getEnd(i)),
+                        this.height, workPaint);
+            }
+        }
+        if (highlight != null && !highlight.isEmpty()) {
+            canvas.drawPath(highlight, highlightPaint);
+        }
+
+        // xi-core sends fg annotations in order, fill the gaps with the default style
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (line.getType(i) != Annotation.FG) {
+                continue;
+            }
+            int start = Math.max(pos, Math.min(line.getStart(i), this.length));
+            int end = Math.min(line.getEnd(i), this.length);
+            if (start >= end) {
+                continue;
+            }
+            this.drawRun(canvas, workPaint, pos, start, this.defaultColor, 0);
+            this.drawRun(canvas, workPaint, start, end, line.getColor(i), line.getFontStyle(i));
+            pos = end;
+        }
+        this.drawRun(canvas, workPaint, pos, this.length, this.defaultColor, 0);
+    }
+
+    private void drawRun(Canvas canvas, TextPaint paint, int start, int end, int color, int fontStyle) {
+        if (start >= end) {
+            return;
+        }
+        paint.setColor(color);
+        paint.setFakeBoldText((fontStyle & Annotation.STYLE_BOLD) != 0);
+        paint.setUnderlineText((fontStyle & Annotation.STYLE_UNDERLINE) != 0);
+        paint.setTextSkewX((fontStyle & Annotation.STYLE_ITALIC) != 0 ? ITALIC_SKEW : 0);
+        canvas.drawText(this.line.text, start, end, start * this.cellWidth, this.baseline, paint);
+    }
+
+    @Override
+    public float getX(int column) {
+        return Math.max(0, Math.min(column, this.length)) * this.cellWidth;
+    }
+
+    @Override
+    public int getColumn(float x) {
+        int column = Math.round(x / this.cellWidth);
+        return Math.max(0, Math.min(column, this.length));
+    }
+
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+
+    @Override
+    public int length() {
+        return this.line.text.length();
+    }
+
+    @Override
+    public Line getLine() {
+        return this.line;
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.util.SparseBooleanArray;
+
+/**
+ * Tracks scroll velocity to decide how far ahead of the viewport lines should be requested.
+ *
+ * The look-ahead covers the distance scrolled during one render_lines round trip, so that
+ * lines are there by the time they come into view. Lines already requested are remembered
+ * until their response comes back, so that requests don't overlap.
+ */
+
+class Prefetcher {
+    // In lines per second, below that scrolling is not a fling
+    static final float FLING_VELOCITY = 30;
+    // Past this delay between two scroll events, motion is considered to have stopped
+    private static final long IDLE = 100;
+
+    private final SparseBooleanArray inFlight = new SparseBooleanArray();
+    private float velocity = 0;
+    private long lastTime = 0;
+    private int lastScroll = 0;
+    // Smoothed round trip of render_lines, in ms
+    private float latency = 100;
+    private int minAhead;
+    private int maxAhead;
+
+    Prefetcher(int minAhead, int maxAhead) {
+        this.minAhead = minAhead;
+        this.maxAhead = maxAhead;
+    }
+
+    void setBounds(int minAhead, int maxAhead) {
+        this.minAhead = minAhead;
+        this.maxAhead = maxAhead;
+    }
+
+    /**
+     * Records a scroll to position y (in px) at time now (in ms).
+     */
+    void onScroll(int y, int lineHeight, long now) {
+        long dt = now - this.lastTime;
+        if (dt <= 0) {
+            this.lastScroll = y;
+            return;
+        }
+        float instant = 1000f * (y - this.lastScroll) / lineHeight / dt;
+        if (dt > IDLE) {
+            this.velocity = instant;
+        } else {
+            this.velocity = .6f * instant + .4f * this.velocity;
+        }
+        this.lastTime = now;
+        this.lastScroll = y;
+    }
+
+    /**
+     * Returns the scroll velocity in lines per second, positive going down.
+     */
+    float getVelocity(long now) {
+        return now - this.lastTime > IDLE ? 0 : this.velocity;
+    }
+
+    boolean isFlinging(long now) {
+        return Math.abs(this.getVelocity(now)) >= FLING_VELOCITY;
+    }
+
+    /**
+     * Returns how many lines past the viewport edge should be requested.
+     */
+    int getLookAhead(long now) {
+        int ahead = (int) (Math.abs(this.getVelocity(now)) * this.latency / 1000) * 2;
+        return Math.max(this.minAhead, Math.min(this.maxAhead, ahead));
+    }
+
+    void onResponse(long elapsed) {
+        this.latency = .8f * this.latency + .2f * elapsed;
+    }
+
+    /* In-flight lines */
+
+    boolean isInFlight(int line) {
+        return this.inFlight.get(line);
+    }
+
+    void setInFlight(int start, int end, boolean inFlight) {
+        for (int i = start; i < end; i++) {
+            if (inFlight) {
+                this.inFlight.put(i, true);
+            } else {
+                this.inFlight.delete(i);
+            }
+        }
+    }
+
+    void clear() {
+        this.inFlight.clear();
+    }
+}
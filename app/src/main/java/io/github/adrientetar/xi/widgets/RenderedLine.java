@@ -0,0 +1,35 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.text.TextPaint;
+
+import io.github.adrientetar.xi.objects.Line;
+
+/**
+ * A line ready to be drawn by {@link XiView}, along with its column/x mapping.
+ */
+
+interface RenderedLine {
+    /**
+     * Draws the line at the origin, highlight first like Layout.draw() does.
+     *
+     * workPaint is scratch state that implementations may clobber.
+     */
+    void draw(Canvas canvas, Path highlight, Paint highlightPaint, TextPaint workPaint);
+
+    float getX(int column);
+
+    int getColumn(float x);
+
+    int getWidth();
+
+    int getHeight();
+
+    // Number of chars, used to estimate memory use
+    int length();
+
+    // The line this was made from
+    Line getLine();
+}
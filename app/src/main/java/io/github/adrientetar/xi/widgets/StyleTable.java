@@ -0,0 +1,116 @@
+package io.github.adrientetar.xi.widgets;
+
+import java.util.Arrays;
+
+/**
+ * Interning table for style objects, keyed by (color, font style).
+ *
+ * A span can only be set once on a given Spannable, so a style showing up several times in
+ * one line gets one instance per occurrence; call {@link #nextLine} between lines to start
+ * over. Instances are kept across lines and updates, so a steady stream of lines using a
+ * bounded set of styles doesn't allocate. Not thread-safe.
+ */
+
+class StyleTable<T> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Factory<T> factory;
+    // Open addressing, a null instances entry marks an empty slot
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Object[][] instances = new Object[INITIAL_CAPACITY][];
+    // Line each slot was last used in, and how many of its instances that line took
+    private int[] stamps = new int[INITIAL_CAPACITY];
+    private int[] used = new int[INITIAL_CAPACITY];
+    private int count = 0;
+    private int line = 1;
+
+    interface Factory<T> {
+        T create(int color, int fontStyle);
+    }
+
+    StyleTable(Factory<T> factory) {
+        this.factory = factory;
+    }
+
+    void nextLine() {
+        this.line += 1;
+        if (this.line == 0) {
+            // wrapped around, stale stamps could look current
+            Arrays.fill(this.stamps, 0);
+            this.line = 1;
+        }
+    }
+
+    /**
+     * Returns an instance for (color, fontStyle) not handed out yet on the current line.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int color, int fontStyle) {
+        long key = ((long) color << 32) | (fontStyle & 0xffffffffL);
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.instances[slot] != null && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        Object[] instances = this.instances[slot];
+        if (instances == null) {
+            if (2 * (this.count + 1) > this.keys.length) {
+                this.grow();
+                return this.get(color, fontStyle);
+            }
+            instances = new Object[1];
+            this.keys[slot] = key;
+            this.instances[slot] = instances;
+            this.count += 1;
+        }
+        if (this.stamps[slot] != this.line) {
+            this.stamps[slot] = this.line;
+            this.used[slot] = 0;
+        }
+        int n = this.used[slot]++;
+        if (n == instances.length) {
+            instances = this.instances[slot] = Arrays.copyOf(instances, 2 * n);
+        }
+        if (instances[n] == null) {
+            instances[n] = this.factory.create(color, fontStyle);
+        }
+        return (T) instances[n];
+    }
+
+    /**
+     * Returns the number of distinct styles seen so far.
+     */
+    int size() {
+        return this.count;
+    }
+
+    private void grow() {
+        long[] keys = this.keys;
+        Object[][] instances = this.instances;
+        int[] stamps = this.stamps;
+        int[] used = this.used;
+        int length = 2 * keys.length;
+        this.keys = new long[length];
+        this.instances = new Object[length][];
+        this.stamps = new int[length];
+        this.used = new int[length];
+        for (int i = 0; i < keys.length; i++) {
+            if (instances[i] == null) {
+                continue;
+            }
+            int slot = hash(keys[i]) & (length - 1);
+            while (this.instances[slot] != null) {
+                slot = (slot + 1) & (length - 1);
+            }
+            this.keys[slot] = keys[i];
+            this.instances[slot] = instances[i];
+            this.stamps[slot] = stamps[i];
+            this.used[slot] = used[i];
+        }
+    }
+
+    private static int hash(long key) {
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.text.TextPaint;
+import android.text.style.CharacterStyle;
+import android.text.style.UpdateAppearance;
+
+import io.github.adrientetar.xi.objects.Annotation;
+
+/**
+ * Color of an fg annotation that is neither bold nor italic, underline included.
+ *
+ * Unlike {@link TextStyleSpan} it doesn't affect metrics, so StaticLayout doesn't have to
+ * measure its runs separately.
+ */
+
+class TextColorSpan extends CharacterStyle implements UpdateAppearance {
+    private final int color;
+    private final boolean underline;
+
+    TextColorSpan(int color, int fontStyle) {
+        this.color = color;
+        this.underline = (fontStyle & Annotation.STYLE_UNDERLINE) != 0;
+    }
+
+    @Override
+    public void updateDrawState(TextPaint paint) {
+        paint.setColor(this.color);
+        if (this.underline) {
+            paint.setUnderlineText(true);
+        }
+    }
+}
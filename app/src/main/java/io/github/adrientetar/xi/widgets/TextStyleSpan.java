@@ -0,0 +1,78 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.text.style.CharacterStyle;
+import android.text.style.MetricAffectingSpan;
+
+import io.github.adrientetar.xi.objects.Annotation;
+
+/**
+ * Color and font style of a bold or italic fg annotation in a single span.
+ *
+ * Stands for the ForegroundColorSpan, StyleSpan and UnderlineSpan an annotation would
+ * otherwise need. Instances are immutable, and shared between lines through a
+ * {@link StyleTable}; {@link #FACTORY} makes a {@link TextColorSpan} for the other styles.
+ */
+
+class TextStyleSpan extends MetricAffectingSpan {
+    static final StyleTable.Factory<CharacterStyle> FACTORY = new StyleTable.Factory<CharacterStyle>() {
+        @Override
+        public CharacterStyle create(int color, int fontStyle) {
+            if ((fontStyle & (Annotation.STYLE_BOLD | Annotation.STYLE_ITALIC)) == 0) {
+                return new TextColorSpan(color, fontStyle);
+            }
+            return new TextStyleSpan(color, fontStyle);
+        }
+    };
+
+    private final int color;
+    private final int fontStyle;
+    // In Typeface terms
+    private final int typefaceStyle;
+
+    TextStyleSpan(int color, int fontStyle) {
+        this.color = color;
+        this.fontStyle = fontStyle;
+        int typefaceStyle = 0;
+        if ((fontStyle & Annotation.STYLE_BOLD) != 0) {
+            typefaceStyle |= Typeface.BOLD;
+        }
+        if ((fontStyle & Annotation.STYLE_ITALIC) != 0) {
+            typefaceStyle |= Typeface.ITALIC;
+        }
+        this.typefaceStyle = typefaceStyle;
+    }
+
+    @Override
+    public void updateDrawState(TextPaint paint) {
+        paint.setColor(this.color);
+        if ((this.fontStyle & Annotation.STYLE_UNDERLINE) != 0) {
+            paint.setUnderlineText(true);
+        }
+        this.applyTypeface(paint);
+    }
+
+    @Override
+    public void updateMeasureState(TextPaint paint) {
+        this.applyTypeface(paint);
+    }
+
+    // Same as StyleSpan, faking what the typeface lacks
+    private void applyTypeface(TextPaint paint) {
+        if (this.typefaceStyle == 0) {
+            return;
+        }
+        Typeface old = paint.getTypeface();
+        int want = (old == null ? 0 : old.getStyle()) | this.typefaceStyle;
+        Typeface typeface = old == null ? Typeface.defaultFromStyle(want) : Typeface.create(old, want);
+        int fake = want & ~typeface.getStyle();
+        if ((fake & Typeface.BOLD) != 0) {
+            paint.setFakeBoldText(true);
+        }
+        if ((fake & Typeface.ITALIC) != 0) {
+            paint.setTextSkewX(-0.25f);
+        }
+        paint.setTypeface(typeface);
+    }
+}
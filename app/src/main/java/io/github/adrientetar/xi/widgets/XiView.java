@@ -12,17 +12,9 @@ import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.text.Editable;
-import android.text.Layout;
-import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
-import android.text.Spanned;
-import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.method.TextKeyListener;
-import android.text.style.BackgroundColorSpan;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.StyleSpan;
-import android.text.style.UnderlineSpan;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
@@ -31,13 +23,14 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Locale;
 
 import io.github.adrientetar.xi.R;
+import io.github.adrientetar.xi.objects.LatencyTracer;
+import io.github.adrientetar.xi.objects.Line;
+import io.github.adrientetar.xi.objects.PendingRequest;
+import io.github.adrientetar.xi.objects.Update;
 import io.github.adrientetar.xi.objects.XiBridge;
 
 /**
@@ -51,18 +44,39 @@ public class XiView extends View {
     // TextView
     private TextKeyListener listener;
     private int firstLine = 0;
-    private StaticLayout[] lines = {};
+    private int linesLength = 0;
+    private LineCache lines;
+    private int cacheWindow = 200;
+    private LayoutPipeline layouts;
+    private Prefetcher prefetcher;
+    // render_lines requests awaiting a response
+    private final ArrayList<LineRequest> lineRequests = new ArrayList<>();
+    // Bumped whenever in-flight layouts become stale
+    private int generation = 0;
     private int totalLines = 0;
     private TextPosition cursorPos;
     private int yOffset = 0;
     // Drawing
     private final Paint highlightPaint;
     private final TextPaint textPaint;
+    private final TextPaint workPaint;
+    private boolean monospace = false;
+    private boolean partialInvalidation = true;
     private Path highlightPath;
     // Editor
     static final int BLINK = 500;
     private long showCursor = -1;
     private Blink blink;
+    // Stats
+    private long flingFrames = 0;
+    private long blankFrames = 0;
+    private long drawCount = 0;
+    private long drawTime = 0;
+    private long linesDrawn = 0;
+    private long linesSkipped = 0;
+    private boolean hardwareAccelerated = false;
+    private final long createTime;
+    private long firstRenderTime = -1;
 
     public XiView(Context context) {
         this(context, null);
@@ -74,6 +88,7 @@ public class XiView extends View {
 
     public XiView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
+        this.createTime = SystemClock.uptimeMillis();
         this.setFocusable(true);
         this.setFocusableInTouchMode(true);
         this.setVerticalScrollBarEnabled(true);
@@ -87,6 +102,7 @@ public class XiView extends View {
         this.textPaint.setTextSize((int) TypedValue.applyDimension(
                 TypedValue.COMPLEX_UNIT_SP, 19, this.getResources().getDisplayMetrics()));
         this.textPaint.setTypeface(Typeface.MONOSPACE);
+        this.workPaint = new TextPaint(this.textPaint);
 
         this.highlightPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         this.highlightPaint.setColor(ContextCompat.getColor(this.getContext(), R.color.colorAccent));
@@ -94,7 +110,15 @@ public class XiView extends View {
 
         this.highlightPath = new Path();
 
-        this.lines = new StaticLayout[this.getHeight() / this.getLineHeight() + 2];
+        this.linesLength = this.getHeight() / this.getLineHeight() + 2;
+        this.lines = new LineCache(2 * 1024 * 1024);
+        this.layouts = new LayoutPipeline(new LayoutPipeline.Callback() {
+            @Override
+            public void onLayouts(int generation, int firstLine, RenderedLine[] layouts) {
+                XiView.this.applyLayouts(generation, firstLine, layouts);
+            }
+        });
+        this.prefetcher = new Prefetcher(this.linesLength / 2, this.cacheWindow);
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -106,13 +130,14 @@ public class XiView extends View {
 
     public void activateBridge(XiBridge bridge, String tab) {
         this.bridge = bridge;
-        this.bridge.setUpdateListener(new XiBridge.OnUpdateListener() {
+        this.tab = tab;
+        this.bridge.registerTab(tab, new XiBridge.OnUpdateListener() {
             @Override
-            public void onUpdate(String tab, JSONObject update) {
-                XiView.this.handleUpdate(tab, update);
+            public void onUpdate(Update update) {
+                XiView.this.handleUpdate(update);
             }
         });
-        this.tab = tab;
+        this.updateTabVisibility();
         this.listener = new TextKeyListener(TextKeyListener.Capitalize.NONE, false) {
             @Override
             public boolean onKeyDown(View view, Editable content, int keyCode, KeyEvent event) {
@@ -127,126 +152,218 @@ public class XiView extends View {
         };
     }
 
-    public void handleUpdate(String tab, JSONObject update) {
-        // XXX: the parent activity should dispatch depending on tab. for now we operate single-tab.
-        if (!tab.equals(this.tab)) {
+    /**
+     * Detaches the view from its tab, which stops receiving updates.
+     */
+    public void deactivateBridge() {
+        if (this.bridge == null) {
+            return;
+        }
+        // no response comes after this
+        for (LineRequest lineRequest : this.lineRequests) {
+            lineRequest.request.cancel();
+            this.prefetcher.setInFlight(lineRequest.firstLine, lineRequest.lastLine, false);
+        }
+        this.lineRequests.clear();
+        this.bridge.unregisterTab(this.tab);
+        this.bridge = null;
+        this.tab = null;
+    }
+
+    public void handleUpdate(Update update) {
+        if (!update.tab.equals(this.tab)) {
             Log.w("Xi", "Invalid update tab.");
             return;
         }
-        try {
-            if (update.has("height")) {
-                int totalLines = update.getInt("height");
-                if (totalLines != this.totalLines) {
-                    this.totalLines = totalLines;
-                    this.requestLayout();
-                }
+        if (update.stale) {
+            // lines changed while we were hidden
+            this.generation += 1;
+            this.lines.clear();
+        }
+        if (update.hasHeight()) {
+            int totalLines = update.height;
+            if (totalLines != this.totalLines) {
+                this.totalLines = totalLines;
+                this.requestLayout();
             }
-            int firstLine = update.getInt("first_line");
-            this.updateLines(firstLine, update.getJSONArray("lines"));
-            if (update.has("scrollto")) {
-                int lineHeight = this.getLineHeight();
-                int scrollToLine = update.getJSONArray("scrollto").getInt(0);
-                int value = -1;
-                if (scrollToLine * lineHeight <= this.firstLine * lineHeight - this.yOffset) {
-                    value = scrollToLine * lineHeight;
-                } else if ((scrollToLine + 1) * lineHeight > this.firstLine * lineHeight - this.yOffset + this.getHeight()) {
-                    value = (scrollToLine + 1) * lineHeight - this.getHeight();
-                }
-                if (value != -1) {
-                    this.setScrollY(value);
-                }
+        }
+        if (update.lines.length > 0) {
+            // the document changed, cached and in-flight lines may be stale
+            this.generation += 1;
+            this.lines.retain(update.firstLine, update.firstLine + update.lines.length);
+        }
+        this.updateLines(update.firstLine, update.lines);
+        this.bridge.getLatencyTracer().mark(LatencyTracer.UPDATED);
+        if (update.stale) {
+            this.sendRenderLines(this.firstLine, this.firstLine + this.linesLength);
+            this.invalidate();
+        }
+        if (update.hasScrollTo()) {
+            int lineHeight = this.getLineHeight();
+            int scrollToLine = update.scrollToLine;
+            int value = -1;
+            if (scrollToLine * lineHeight <= this.firstLine * lineHeight - this.yOffset) {
+                value = scrollToLine * lineHeight;
+            } else if ((scrollToLine + 1) * lineHeight > this.firstLine * lineHeight - this.yOffset + this.getHeight()) {
+                value = (scrollToLine + 1) * lineHeight - this.getHeight();
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void updateLines(int firstLine, JSONArray lines) {
-        int start = Math.max(this.firstLine, firstLine);
-        int end = Math.min(this.firstLine + this.lines.length, firstLine + lines.length());
-        int wantWidth = this.getWidth();
-        SpannableStringBuilder builder = new SpannableStringBuilder();
-        for (int i = start; i < end; i++) {
-            try {
-                JSONArray line = lines.getJSONArray(i - firstLine);
-                builder.append(line.getString(0));
-                for (int j = 1; j < line.length(); j++) {
-                    JSONArray annotation = line.getJSONArray(j);
-                    switch (annotation.getString(0)) {
-                        case "cursor":
-                            this.cursorPos.line = i;
-                            this.cursorPos.column = annotation.getInt(1);
-                            break;
-                        case "fg":
-                            builder.setSpan(
-                                    new ForegroundColorSpan(annotation.getInt(3)),
-                                    annotation.getInt(1),
-                                    annotation.getInt(2),
-                                    Spanned.SPAN_INCLUSIVE_EXCLUSIVE
-                            );
-                            int fontStyle = annotation.getInt(4);
-                            if ((fontStyle & 1) != 0) {
-                                builder.setSpan(
-                                    new StyleSpan(Typeface.BOLD),
-                                    annotation.getInt(1),
-                                    annotation.getInt(2),
-                                    Spanned.SPAN_INCLUSIVE_EXCLUSIVE
-                                );
-                            }
-                            if ((fontStyle & 2) != 0) {
-                                builder.setSpan(
-                                    new UnderlineSpan(),
-                                    annotation.getInt(1),
-                                    annotation.getInt(2),
-                                    Spanned.SPAN_INCLUSIVE_EXCLUSIVE
-                                );
-                            }
-                            if ((fontStyle & 4) != 0) {
-                                builder.setSpan(
-                                    new StyleSpan(Typeface.ITALIC),
-                                    annotation.getInt(1),
-                                    annotation.getInt(2),
-                                    Spanned.SPAN_INCLUSIVE_EXCLUSIVE
-                                );
-                            }
-                            break;
-                        case "sel":
-                            builder.setSpan(
-                                new BackgroundColorSpan(this.highlightPaint.getColor()),
-                                annotation.getInt(1),
-                                annotation.getInt(2),
-                                Spanned.SPAN_INCLUSIVE_EXCLUSIVE
-                            );
-                            break;
-                    }
+            if (value != -1) {
+                this.setScrollY(value);
+            }
+        }
+    }
+
+    private void updateLines(int firstLine, Line[] lines) {
+        int start = Math.max(this.firstLine - this.cacheWindow, firstLine);
+        int end = Math.min(this.firstLine + this.linesLength + this.cacheWindow, firstLine + lines.length);
+        // only lay out the runs of lines that changed
+        int run = -1;
+        boolean submitted = false;
+        for (int i = start; i <= end; i++) {
+            boolean unchanged = i == end;
+            if (!unchanged) {
+                Line line = lines[i - firstLine];
+                if (line.hasCursor()) {
+                    this.cursorPos.line = i;
+                    this.cursorPos.column = line.cursor;
                 }
-            } catch (JSONException e) {
-                Log.e("Xi", "Failure in updateLines().");
-                e.printStackTrace();
-                return;
+                RenderedLine cached = this.lines.peek(i);
+                unchanged = cached != null && cached.getLine().equals(line);
             }
-            this.lines[i-this.firstLine] = new StaticLayout(
-                    SpannableString.valueOf(builder), this.textPaint, wantWidth,
-                    Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
-            builder.clear();
+            if (!unchanged && run == -1) {
+                run = i;
+            } else if (unchanged && run != -1) {
+                this.layouts.submit(this.generation, firstLine, lines, run - firstLine, i - firstLine,
+                        this.textPaint, this.getWidth(), this.highlightPaint.getColor(), this.monospace);
+                run = -1;
+                submitted = true;
+            }
+        }
+        if (!submitted && this.bridge != null) {
+            // nothing to wait for
+            this.bridge.getLatencyTracer().mark(LatencyTracer.LAID_OUT);
+        }
+    }
+
+    private void applyLayouts(int generation, int firstLine, RenderedLine[] layouts) {
+        if (generation != this.generation) {
+            // an update came in since, these are stale
+            return;
+        }
+        for (int i = 0; i < layouts.length; i++) {
+            this.lines.put(firstLine + i, layouts[i]);
+        }
+        if (this.bridge != null) {
+            this.bridge.getLatencyTracer().mark(LatencyTracer.LAID_OUT);
+        }
+        int start = Math.max(firstLine, this.firstLine);
+        int end = Math.min(firstLine + layouts.length, this.firstLine + this.linesLength);
+        if (start < end) {
+            this.invalidateLines(start, end);
         }
-        this.invalidate();
+    }
+
+    private void invalidateLines(int start, int end) {
+        if (!this.partialInvalidation) {
+            this.invalidate();
+            return;
+        }
+        // lines sit at their absolute offset in scrolled coordinates
+        int lineHeight = this.getLineHeight();
+        this.invalidate(0, start * lineHeight, this.getWidth(), end * lineHeight);
     }
 
     private void sendRenderLines(int firstLine, int lastLine) {
         firstLine = Math.max(firstLine, this.firstLine);
-        lastLine = Math.min(lastLine, this.firstLine + this.lines.length);
-        if (firstLine == lastLine) {
-            return;
+        lastLine = Math.min(lastLine, this.firstLine + this.linesLength);
+        this.requestMissing(firstLine, lastLine, true);
+    }
+
+    /**
+     * Requests lines past the viewport edge the user is scrolling towards.
+     */
+    private void prefetch() {
+        long now = SystemClock.uptimeMillis();
+        int ahead = this.prefetcher.getLookAhead(now);
+        if (this.prefetcher.getVelocity(now) < 0) {
+            this.requestMissing(this.firstLine - ahead, this.firstLine, false);
+        } else {
+            int end = this.firstLine + this.linesLength;
+            this.requestMissing(end, end + ahead, false);
+        }
+    }
+
+    private void requestMissing(int firstLine, int lastLine, boolean visible) {
+        firstLine = Math.max(firstLine, 0);
+        if (this.totalLines > 0) {
+            lastLine = Math.min(lastLine, this.totalLines);
         }
-        final int f = firstLine;
-        XiBridge.ResponseHandler handler = new XiBridge.ResponseHandler() {
+        // only ask for the runs of lines we don't have or haven't asked for yet
+        int start = -1;
+        for (int i = firstLine; i <= lastLine; i++) {
+            boolean cached = i == lastLine || this.prefetcher.isInFlight(i) ||
+                    (visible ? this.lines.get(i) != null : this.lines.contains(i));
+            if (!cached && start == -1) {
+                start = i;
+            } else if (cached && start != -1) {
+                this.sendRenderLinesRange(start, i);
+                start = -1;
+            }
+        }
+    }
+
+    private void sendRenderLinesRange(final int firstLine, final int lastLine) {
+        final LineRequest lineRequest = new LineRequest(firstLine, lastLine);
+        final long sent = SystemClock.uptimeMillis();
+        XiBridge.ResponseHandler handler = new XiBridge.TimeoutHandler() {
             @Override
             public void invoke(Object result) {
-                XiView.this.updateLines(f, (JSONArray) result);
+                XiView view = XiView.this;
+                view.lineRequests.remove(lineRequest);
+                view.prefetcher.setInFlight(firstLine, lastLine, false);
+                view.prefetcher.onResponse(SystemClock.uptimeMillis() - sent);
+                view.updateLines(firstLine, (Line[]) result);
+            }
+
+            @Override
+            public void onTimeout() {
+                XiView view = XiView.this;
+                view.lineRequests.remove(lineRequest);
+                view.prefetcher.setInFlight(firstLine, lastLine, false);
             }
         };
-        this.bridge.sendRenderLines(this.tab, firstLine, lastLine, handler);
+        lineRequest.request = this.bridge.sendRenderLines(this.tab, firstLine, lastLine, handler);
+        if (lineRequest.request != null) {
+            this.prefetcher.setInFlight(firstLine, lastLine, true);
+            this.lineRequests.add(lineRequest);
+        }
+    }
+
+    /**
+     * Cancels requests for lines that scrolled out of the cache window.
+     */
+    private void cancelLineRequests() {
+        int start = this.firstLine - this.cacheWindow;
+        int end = this.firstLine + this.linesLength + this.cacheWindow;
+        for (int i = this.lineRequests.size() - 1; i >= 0; i--) {
+            LineRequest lineRequest = this.lineRequests.get(i);
+            if (lineRequest.lastLine <= start || lineRequest.firstLine >= end) {
+                lineRequest.request.cancel();
+                this.prefetcher.setInFlight(lineRequest.firstLine, lineRequest.lastLine, false);
+                this.lineRequests.remove(i);
+            }
+        }
+    }
+
+    private static class LineRequest {
+        final int firstLine;
+        final int lastLine;
+        PendingRequest request;
+
+        LineRequest(int firstLine, int lastLine) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+        }
     }
 
     //
@@ -254,6 +371,7 @@ public class XiView extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        long drawStart = System.nanoTime();
 
         // this will undo Y scroll offset
         canvas.translate(0, this.getScrollY());
@@ -261,14 +379,41 @@ public class XiView extends View {
         canvas.translate(0, this.yOffset);
 
         int lineHeight = this.getLineHeight();
-        int i = 0;
-        for (StaticLayout layout: this.lines) {
+        int width = this.getWidth();
+        int visible = Math.min(this.linesLength, this.totalLines - this.firstLine);
+        boolean blank = false;
+        for (int i = 0; i < this.linesLength; i++) {
+            RenderedLine layout = this.lines.peek(this.firstLine + i);
+            // skip lines outside of the dirty region
+            if (canvas.quickReject(0, 0, width, lineHeight, Canvas.EdgeType.AA)) {
+                this.linesSkipped += 1;
+                canvas.translate(0, lineHeight);
+                continue;
+            }
+            this.linesDrawn += 1;
             if (layout != null) {
                 this.makeCursorPath(i);
-                layout.draw(canvas, this.highlightPath, this.highlightPaint, 0);
-                canvas.translate(0, lineHeight);
+                layout.draw(canvas, this.highlightPath, this.highlightPaint, this.workPaint);
+                if (this.firstRenderTime == -1) {
+                    this.firstRenderTime = SystemClock.uptimeMillis() - this.createTime;
+                    Log.v("Xi", "First render after " + this.firstRenderTime + " ms.");
+                }
+            } else if (i < visible) {
+                blank = true;
+            }
+            canvas.translate(0, lineHeight);
+        }
+        if (this.prefetcher.isFlinging(SystemClock.uptimeMillis())) {
+            this.flingFrames += 1;
+            if (blank) {
+                this.blankFrames += 1;
             }
-            i += 1;
+        }
+        this.drawCount += 1;
+        this.drawTime += System.nanoTime() - drawStart;
+        this.hardwareAccelerated = canvas.isHardwareAccelerated();
+        if (this.bridge != null) {
+            this.bridge.getLatencyTracer().mark(LatencyTracer.DRAWN);
         }
     }
 
@@ -286,7 +431,8 @@ public class XiView extends View {
             width = widthSize;
         } else {
             width = 0;
-            for (StaticLayout layout : this.lines) {
+            for (int i = 0; i < this.linesLength; i++) {
+                RenderedLine layout = this.lines.peek(this.firstLine + i);
                 if (layout == null) {
                     continue;
                 }
@@ -317,26 +463,25 @@ public class XiView extends View {
         super.onScrollChanged(l, t, oldl, oldt);
 
         int lineHeight = this.getLineHeight();
-        int linesLength = this.lines.length;
+        int linesLength = this.linesLength;
         int prevFirstLine = this.firstLine;
         this.firstLine = t / lineHeight;
+        this.prefetcher.onScroll(t, lineHeight, SystemClock.uptimeMillis());
         if (this.firstLine > prevFirstLine) {
-            int diff = this.firstLine - prevFirstLine;
-            for (int i = diff; i < linesLength; i++) {
-                this.lines[i - diff] = this.lines[i];
-            }
             this.sendRenderLines(prevFirstLine + linesLength, this.firstLine + linesLength);
             this.bridge.sendScroll(this.tab, this.firstLine, this.firstLine + linesLength);
         } else if (this.firstLine < prevFirstLine) {
-            int diff = prevFirstLine - this.firstLine;
-            for (int i = linesLength - diff - 1; i >= 0; i--) {
-                this.lines[i + diff] = this.lines[i];
-            }
             this.sendRenderLines(this.firstLine, prevFirstLine);
             this.bridge.sendScroll(this.tab, this.firstLine, this.firstLine + linesLength);
         } else {
             this.invalidate();
         }
+        if (this.firstLine != prevFirstLine) {
+            this.lines.retain(this.firstLine - this.cacheWindow,
+                    this.firstLine + linesLength + this.cacheWindow);
+            this.cancelLineRequests();
+            this.prefetch();
+        }
         this.yOffset = Math.round(this.firstLine * lineHeight - t);
     }
 
@@ -349,18 +494,28 @@ public class XiView extends View {
         }
 
         int linesLength = h / this.getLineHeight() + 2;
-        int prevLinesLength = this.lines.length;
+        int prevLinesLength = this.linesLength;
+        if (w != oldw) {
+            // layouts were made for the former width
+            this.generation += 1;
+            this.lines.clear();
+            prevLinesLength = 0;
+        }
         if (linesLength != prevLinesLength) {
-            this.lines = Arrays.copyOf(this.lines, linesLength);
-            this.bridge.sendScroll(this.tab, this.firstLine, this.firstLine + this.lines.length);
+            this.linesLength = linesLength;
+            this.prefetcher.setBounds(linesLength / 2, this.cacheWindow);
+            this.bridge.sendScroll(this.tab, this.firstLine, this.firstLine + linesLength);
             if (linesLength > prevLinesLength) {
-                this.sendRenderLines(this.firstLine + prevLinesLength, this.firstLine + this.lines.length);
+                this.sendRenderLines(this.firstLine + prevLinesLength, this.firstLine + linesLength);
             }
         }
     }
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (this.bridge != null) {
+            this.bridge.getLatencyTracer().input();
+        }
         String command = null;
         String suffix = event.hasModifiers(KeyEvent.META_SHIFT_ON) ? "_and_modify_selection" : "";
         switch (keyCode) {
@@ -395,7 +550,9 @@ public class XiView extends View {
                 command = "page_down" + suffix;
         }
         if (command != null) {
-            this.bridge.sendEdit(this.tab, command);
+            if (this.bridge != null) {
+                this.bridge.sendEdit(this.tab, command);
+            }
             return true;
         } else {
             Editable text = new SpannableStringBuilder("");
@@ -416,12 +573,19 @@ public class XiView extends View {
             TextPosition loc;
             switch (action) {
                 case MotionEvent.ACTION_DOWN:
+                    if (this.bridge == null) {
+                        break;
+                    }
+                    this.bridge.getLatencyTracer().input();
                     loc = this.getTextPosition(event.getX(), event.getY());
                     if (loc != null) {
                         this.bridge.sendClick(tab, loc.line, loc.column, 0, 1);
                     }
                     break;
                 case MotionEvent.ACTION_MOVE:
+                    if (this.bridge == null) {
+                        break;
+                    }
                     loc = this.getTextPosition(event.getX(), event.getY());
                     if (loc != null) {
                         this.bridge.sendDrag(tab, loc.line, loc.column, 0);
@@ -440,6 +604,25 @@ public class XiView extends View {
         return handled || superResult;
     }
 
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        this.updateTabVisibility();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        this.updateTabVisibility();
+    }
+
+    private void updateTabVisibility() {
+        if (this.bridge != null) {
+            this.bridge.setTabVisible(this.tab,
+                    this.isShown() && this.getWindowVisibility() == View.VISIBLE);
+        }
+    }
+
     @Override
     public void onWindowFocusChanged(boolean hasWindowFocus) {
         super.onWindowFocusChanged(hasWindowFocus);
@@ -467,9 +650,111 @@ public class XiView extends View {
         return this.tab;
     }
 
+    /**
+     * Sets how many lines above and below the viewport are kept rendered.
+     */
+    public void setLineCacheWindow(int lines) {
+        this.cacheWindow = lines;
+        this.lines.retain(this.firstLine - lines, this.firstLine + this.linesLength + lines);
+        this.prefetcher.setBounds(this.linesLength / 2, lines);
+    }
+
+    /**
+     * Sets the memory budget of rendered lines, in bytes.
+     */
+    public void setLineCacheSize(int bytes) {
+        this.lines.setMaxSize(bytes);
+    }
+
+    /**
+     * Returns the ratio of lines scrolled into view that were already rendered.
+     */
+    public float getLineCacheHitRate() {
+        long hits = this.lines.getHitCount();
+        long total = hits + this.lines.getMissCount();
+        return total == 0 ? 0 : (float) hits / total;
+    }
+
+    /**
+     * Returns the ratio of frames drawn during a fling that had visible lines missing.
+     */
+    public float getBlankFrameRate() {
+        return this.flingFrames == 0 ? 0 : (float) this.blankFrames / this.flingFrames;
+    }
+
+    /**
+     * Returns the time from creation of the view to the first line drawn, in milliseconds, or
+     * -1 if nothing was drawn yet.
+     */
+    public long getTimeToFirstRender() {
+        return this.firstRenderTime;
+    }
+
+    /**
+     * Returns the average time spent in onDraw, in nanoseconds.
+     */
+    public long getDrawTime() {
+        return this.drawCount == 0 ? 0 : this.drawTime / this.drawCount;
+    }
+
+    /**
+     * Returns the frame count, average onDraw time and lines drawn and skipped per frame, to
+     * compare with and without {@link #setPartialInvalidation}.
+     *
+     * With hardware acceleration the clip is the whole view whatever was invalidated, so no
+     * line is skipped and only the layouts that updates didn't have to make again are saved.
+     */
+    public String getDrawStats() {
+        long frames = Math.max(this.drawCount, 1);
+        return String.format(Locale.ROOT,
+                "%d frames, %.1f us in onDraw, %.1f lines drawn and %.1f skipped per frame (%s)",
+                this.drawCount, this.getDrawTime() / 1e3, (double) this.linesDrawn / frames,
+                (double) this.linesSkipped / frames,
+                this.hardwareAccelerated ? "hardware" : "software");
+    }
+
+    /**
+     * Invalidates only the lines that changed and the cursor, rather than the whole view.
+     */
+    public void setPartialInvalidation(boolean enabled) {
+        this.partialInvalidation = enabled;
+    }
+
+    /**
+     * Draws lines made only of single-cell chars directly instead of through StaticLayout.
+     *
+     * This only takes effect if the typeface is monospace, other lines keep the layout path.
+     */
+    public void setMonospaceRendering(boolean enabled) {
+        TextPaint paint = this.textPaint;
+        enabled = enabled && paint.measureText("i") == paint.measureText("W");
+        if (enabled != this.monospace) {
+            this.monospace = enabled;
+            this.generation += 1;
+            this.lines.clear();
+            if (this.bridge != null) {
+                this.sendRenderLines(this.firstLine, this.firstLine + this.linesLength);
+            }
+        }
+    }
+
+    public boolean getMonospaceRendering() {
+        return this.monospace;
+    }
+
     public void invalidateCursorPath() {
-        // TODO: invalidate cursor path only
-        this.invalidate();
+        if (!this.partialInvalidation) {
+            this.invalidate();
+            return;
+        }
+        RenderedLine layout = this.lines.peek(this.cursorPos.line);
+        if (layout == null) {
+            return;
+        }
+        float x = Math.max(layout.getX(this.cursorPos.column), .5f);
+        int top = this.cursorPos.line * this.getLineHeight();
+        // leave a pixel on each side for antialiasing
+        this.invalidate((int) x - 1, top, (int) Math.ceil(x) + 1, top + layout.getHeight());
     }
 
     private void makeCursorPath(int line) {
@@ -485,16 +770,16 @@ public class XiView extends View {
             this.showCursor = SystemClock.uptimeMillis();
         }
         if ((SystemClock.uptimeMillis() - this.showCursor) % (2 * BLINK) < BLINK) {
-            if (cursorLine >= this.lines.length || this.lines[cursorLine] == null) {
+            RenderedLine layout = this.lines.peek(this.cursorPos.line);
+            if (layout == null) {
                 return;
             }
-            StaticLayout layout = this.lines[cursorLine];
-            float x = layout.getPrimaryHorizontal(this.cursorPos.column);
+            float x = layout.getX(this.cursorPos.column);
             if (x < .5f) {
                 x = .5f;
             }
-            int top = layout.getLineTop(0);
-            int bottom = layout.getLineBottom(0);
+            int top = 0;
+            int bottom = layout.getHeight();
             this.highlightPath.moveTo(x, top);
             this.highlightPath.lineTo(x, bottom);
         }
@@ -534,16 +819,17 @@ public class XiView extends View {
     private TextPosition getTextPosition(float x, float y) {
         int line = (int)((y - this.yOffset) / this.getLineHeight()) + this.firstLine;
         //
-        if (line-this.firstLine >= this.lines.length) {
-            line = Math.max(this.firstLine + this.lines.length - 1, this.firstLine);
+        if (line-this.firstLine >= this.linesLength) {
+            line = Math.max(this.firstLine + this.linesLength - 1, this.firstLine);
         } else if (line-this.firstLine < 0) {
             line = 0;
         }
         //
-        if (line-this.firstLine >= this.lines.length || this.lines[line-this.firstLine] == null) {
+        RenderedLine layout = this.lines.peek(line);
+        if (layout == null) {
             return null;
         }
-        int column = this.lines[line-this.firstLine].getOffsetForHorizontal(0, x);
+        int column = layout.getColumn(x);
         return new TextPosition(line, column);
     }
 
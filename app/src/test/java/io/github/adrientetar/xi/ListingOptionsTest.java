@@ -0,0 +1,88 @@
+package io.github.adrientetar.xi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how entries are filtered and ordered.
+ */
+
+public class ListingOptionsTest {
+    private Locale locale;
+
+    private static final List<FileItem> ENTRIES = Arrays.asList(
+            new FileItem("b.txt", 0, false, 5, 1),
+            new FileItem("Zed", 0, true, 0, 3),
+            new FileItem("a.md", 0, false, 9, 2),
+            new FileItem("élan.TXT", 0, false, 1, 4),
+            new FileItem("alpha", 0, true, 0, 0));
+
+    private static List<String> names(List<FileItem> items) {
+        List<String> names = new ArrayList<>();
+        for (FileItem item : items) {
+            names.add(item.name);
+        }
+        return names;
+    }
+
+    @Before
+    public void setUp() {
+        this.locale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(this.locale);
+    }
+
+    @Test
+    public void sortsByNameWithDirectoriesFirst() {
+        assertEquals(Arrays.asList("alpha", "Zed", "a.md", "b.txt", "élan.TXT"),
+                names(ListingOptions.DEFAULT.apply(ENTRIES)));
+        ListingOptions mixed = new ListingOptions(ListingOptions.Order.NAME, false, null);
+        // case and accents only matter on a tie
+        assertEquals(Arrays.asList("a.md", "alpha", "b.txt", "élan.TXT", "Zed"),
+                names(mixed.apply(ENTRIES)));
+
+        String[] names = {"b.txt", "Zed", "a.md", "élan.TXT", "alpha"};
+        ListingOptions.sortNames(names);
+        assertEquals(names(mixed.apply(ENTRIES)), Arrays.asList(names));
+    }
+
+    @Test
+    public void sortsBySizeAndDate() {
+        ListingOptions size = ListingOptions.DEFAULT.withOrder(ListingOptions.Order.SIZE);
+        assertEquals(Arrays.asList("alpha", "Zed", "a.md", "b.txt", "élan.TXT"),
+                names(size.apply(ENTRIES)));
+        ListingOptions modified = ListingOptions.DEFAULT.withOrder(ListingOptions.Order.MODIFIED);
+        assertEquals(Arrays.asList("Zed", "alpha", "élan.TXT", "a.md", "b.txt"),
+                names(modified.apply(ENTRIES)));
+    }
+
+    @Test
+    public void filtersByGlobOrExtension() {
+        assertEquals(Arrays.asList("alpha", "Zed", "b.txt", "élan.TXT"),
+                names(ListingOptions.DEFAULT.withFilter("txt").apply(ENTRIES)));
+        assertEquals(names(ListingOptions.DEFAULT.withFilter("txt").apply(ENTRIES)),
+                names(ListingOptions.DEFAULT.withFilter(".txt").apply(ENTRIES)));
+        assertEquals(Arrays.asList("alpha", "Zed", "a.md"),
+                names(ListingOptions.DEFAULT.withFilter("*.MD").apply(ENTRIES)));
+        assertEquals(Arrays.asList("alpha", "Zed", "a.md", "b.txt"),
+                names(ListingOptions.DEFAULT.withFilter("?.*").apply(ENTRIES)));
+        assertEquals(ListingOptions.DEFAULT, ListingOptions.DEFAULT.withFilter(""));
+
+        // anything but * and ? is taken as it is
+        List<FileItem> odd = Arrays.asList(new FileItem("a+b.c", 0), new FileItem("aab.c", 0));
+        assertEquals(Arrays.asList("a+b.c"),
+                names(ListingOptions.DEFAULT.withFilter("a+b.*").apply(odd)));
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.adrientetar.xi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Finds files by approximate name, and follows changes to the tree they are in.
+ */
+
+public class SearchIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void touch(File directory, String... names) throws Exception {
+        for (String name : names) {
+            assertTrue(new File(directory, name).createNewFile());
+        }
+        // mtimes might not be precise enough to tell
+        directory.setLastModified(directory.lastModified() + 2000);
+    }
+
+    @Test
+    public void findsCloseNames() throws Exception {
+        SearchIndex index = new SearchIndex();
+        index.setDirectory("", 1, new String[]{"src", "README.md", "notes.txt"});
+        index.setDirectory("src", 1, new String[]{"XiBridge.java", "XiView.java", "Bridges.txt"});
+
+        List<String> results = index.search("xibridge", 10);
+        assertEquals("src/XiBridge.java", results.get(0));
+        // one letter off
+        assertEquals("src/XiBridge.java", index.search("xibrdge", 10).get(0));
+        assertTrue(index.search("qqq", 10).isEmpty());
+        // too short for trigrams
+        assertEquals("src", index.search("sr", 10).get(0));
+
+        index.setDirectory("src", 2, new String[]{"XiView.java"});
+        assertFalse(index.contains("src/XiBridge.java"));
+        index.remove("src");
+        assertEquals(2, index.size());
+        assertTrue(index.search("xiview", 10).isEmpty());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(out);
+        SearchIndex loaded = new SearchIndex();
+        loaded.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, loaded.size());
+        assertEquals("notes.txt", loaded.search("note", 10).get(0));
+        // reading replaces what was there
+        index.add("extra.txt");
+        index.read(new ByteArrayInputStream(out.toByteArray()));
+        assertFalse(index.contains("extra.txt"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void walksOnlyWhatChanged() throws Exception {
+        File root = this.folder.newFolder("root");
+        File store = new File(this.folder.getRoot(), "search.idx");
+        File a = new File(root, "a");
+        File b = new File(a, "b");
+        assertTrue(b.mkdirs());
+        touch(b, "deep.txt", "other.txt");
+        touch(root, "top.txt");
+
+        SearchIndexer indexer = new SearchIndexer(root, store);
+        indexer.updateNow();
+        assertEquals(5, indexer.getIndex().size());
+        assertEquals("a/b/deep.txt", indexer.search("deep", 1).get(0));
+        assertEquals(0, indexer.walk());
+
+        assertTrue(new File(b, "deep.txt").delete());
+        touch(b, "new.txt");
+        assertEquals(1, indexer.walk());
+        assertTrue(indexer.search("deep", 1).isEmpty());
+
+        // picks up from the saved index
+        touch(root, "last.txt");
+        indexer.updateNow();
+        SearchIndexer reloaded = new SearchIndexer(root, store);
+        reloaded.updateNow();
+        assertEquals(6, reloaded.getIndex().size());
+        assertEquals(0, reloaded.walk());
+        assertEquals("a/b/new.txt", reloaded.search("new", 1).get(0));
+    }
+
+    @Test(timeout = 10000)
+    public void doesNotFollowLinks() throws Exception {
+        File root = this.folder.newFolder("root");
+        File a = new File(root, "a");
+        assertTrue(a.mkdir());
+        touch(a, "file.txt");
+        Files.createSymbolicLink(new File(a, "up").toPath(), root.toPath());
+
+        SearchIndexer indexer = new SearchIndexer(root, new File(this.folder.getRoot(), "search.idx"));
+        indexer.updateNow();
+        // a, a/file.txt and the link itself
+        assertEquals(3, indexer.getIndex().size());
+        assertTrue(indexer.getIndex().contains("a/up"));
+        assertTrue(indexer.search("file", 10).contains("a/file.txt"));
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTracerTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.highest(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highest(index - 1));
+        }
+        assertEquals(LatencyHistogram.index(Long.MAX_VALUE), LatencyHistogram.index(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void percentilesFromManyThreads() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= 1000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, histogram.getCount());
+        // within a bucket, 1/16 of the value
+        assertEquals(500, histogram.getPercentile(50), 500 / 16);
+        assertEquals(990, histogram.getPercentile(99), 990 / 16);
+        assertEquals(1, histogram.getPercentile(0));
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void tracesOneEventThroughTheStages() {
+        LatencyTracer tracer = new LatencyTracer();
+        tracer.input();
+        tracer.mark(LatencyTracer.SENT);
+        assertEquals(0, tracer.getHistogram(LatencyTracer.SENT).getCount());
+
+        tracer.setEnabled(true);
+        tracer.input();
+        // out of order, and a second input while the first is traced
+        tracer.mark(LatencyTracer.RECEIVED);
+        tracer.input();
+        for (int stage = LatencyTracer.SENT; stage <= LatencyTracer.DRAWN; stage++) {
+            tracer.mark(stage);
+        }
+        for (int stage = LatencyTracer.SENT; stage <= LatencyTracer.TOTAL; stage++) {
+            assertEquals(1, tracer.getHistogram(stage).getCount());
+        }
+        // a draw with nothing traced
+        tracer.mark(LatencyTracer.DRAWN);
+        assertEquals(1, tracer.getHistogram(LatencyTracer.TOTAL).getCount());
+        assertTrue(tracer.dump().contains("total: "));
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+    @Test
+    public void coalescesRedundantMessages() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        queue.add(OutboundMessage.scroll("0", 0, 10));
+        queue.add(OutboundMessage.insert("0", "a"));
+        queue.add(OutboundMessage.insert("0", "b"));
+        queue.add(OutboundMessage.scroll("1", 5, 15));
+        queue.add(OutboundMessage.scroll("0", 3, 13));
+        queue.add(OutboundMessage.drag("0", 1, 1, 0));
+        queue.add(OutboundMessage.drag("0", 2, 4, 0));
+        queue.add(OutboundMessage.insert("0", "c"));
+
+        List<OutboundMessage> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        assertEquals(5, batch.size());
+        assertEquals(8, queue.getEnqueuedCount());
+        assertEquals(3, queue.getCoalescedCount());
+
+        assertEquals("ab", batch.get(0).chars.toString());
+        assertEquals("1", batch.get(1).tab);
+        // moved after what was queued in between
+        assertEquals(OutboundMessage.SCROLL, batch.get(2).kind);
+        assertEquals(3, batch.get(2).a);
+        assertEquals(13, batch.get(2).b);
+        assertEquals(2, batch.get(3).a);
+        assertEquals(4, batch.get(3).b);
+        assertEquals("c", batch.get(4).chars.toString());
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks deadlines, cancellation and the in-flight cap.
+ */
+
+public class PendingRequestsTest {
+    private static class Recorder implements PendingRequests.Sender, PendingRequests.Clock {
+        final List<Integer> sent = new ArrayList<>();
+        final List<Integer> dropped = new ArrayList<>();
+        long now = 0;
+
+        @Override
+        public void send(PendingRequest request) {
+            this.sent.add(request.id);
+        }
+
+        @Override
+        public void drop(PendingRequest request) {
+            this.dropped.add(request.id);
+        }
+
+        @Override
+        public long now() {
+            return this.now;
+        }
+    }
+
+    private static PendingRequest add(PendingRequests table, int id) {
+        return table.add(id, null, OutboundMessage.renderLines(id, "1", 0, 10));
+    }
+
+    @Test
+    public void capsRequestsInFlight() {
+        Recorder recorder = new Recorder();
+        PendingRequests table = new PendingRequests(recorder, recorder, 2, 1000);
+        add(table, 0);
+        add(table, 1);
+        PendingRequest third = add(table, 2);
+        assertEquals(2, recorder.sent.size());
+        assertEquals(1, table.getQueuedCount());
+        assertEquals(1, table.getDeferCount());
+
+        assertNotNull(table.complete(0));
+        assertEquals(3, recorder.sent.size());
+        assertTrue(third.isPending());
+        assertNull(table.complete(0));
+    }
+
+    @Test
+    public void expiresOverdueRequests() {
+        Recorder recorder = new Recorder();
+        PendingRequests table = new PendingRequests(recorder, recorder, 1, 1000);
+        add(table, 0);
+        recorder.now = 500;
+        add(table, 1);
+        assertEquals(1000, table.getNextDeadline());
+
+        List<PendingRequest> expired = new ArrayList<>();
+        recorder.now = 999;
+        table.expire(expired);
+        assertEquals(0, expired.size());
+        recorder.now = 1000;
+        table.expire(expired);
+        assertEquals(1, expired.size());
+        assertEquals(1, table.getTimeoutCount());
+        // the held back request went out once the slot freed up
+        assertEquals(2000, table.getNextDeadline());
+        assertNull(table.complete(0));
+        assertNotNull(table.complete(1));
+        assertEquals(-1, table.getNextDeadline());
+    }
+
+    @Test
+    public void expiresRequestsHeldBack() {
+        Recorder recorder = new Recorder();
+        PendingRequests table = new PendingRequests(recorder, recorder, 1, 1000);
+        add(table, 0);
+        recorder.now = 100;
+        PendingRequest held = add(table, 1);
+        recorder.now = 200;
+        add(table, 2);
+
+        // xi-core stopped responding, what waits behind goes too
+        List<PendingRequest> expired = new ArrayList<>();
+        recorder.now = 1100;
+        table.expire(expired);
+        assertEquals(2, expired.size());
+        assertSame(held, expired.get(1));
+        assertFalse(held.isPending());
+        // the one held back for less long goes out
+        assertEquals(2, (int) recorder.sent.get(1));
+        assertEquals(0, table.getQueuedCount());
+        assertEquals(1, table.getInFlightCount());
+        assertEquals(2100, table.getNextDeadline());
+        assertNull(table.get(1));
+    }
+
+    @Test
+    public void cancelsRequests() {
+        Recorder recorder = new Recorder();
+        PendingRequests table = new PendingRequests(recorder, recorder, 1, 1000);
+        PendingRequest first = add(table, 0);
+        PendingRequest second = add(table, 1);
+        second.cancel();
+        first.cancel();
+        first.cancel();
+        assertFalse(first.isPending());
+        assertEquals(1, recorder.sent.size());
+        assertEquals(2, recorder.dropped.size());
+        assertEquals(2, table.getCancelCount());
+        assertEquals(0, table.getInFlightCount());
+        assertNull(table.complete(0));
+    }
+}
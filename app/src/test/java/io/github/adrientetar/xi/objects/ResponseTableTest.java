@@ -0,0 +1,82 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class ResponseTableTest {
+    private static class Request implements ResponseTable.Entry {
+        final int id;
+
+        Request(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int getId() {
+            return this.id;
+        }
+    }
+
+    @Test
+    public void skipsSlotsStillTaken() {
+        ResponseTable<Request> table = new ResponseTable<>(4);
+        Request old = new Request(table.reserve());
+        table.put(old);
+        for (int i = 0; i < 3; i++) {
+            table.put(new Request(table.reserve()));
+            table.remove(i + 1);
+        }
+        // id 4 would go where 0 still is
+        assertEquals(5, table.reserve());
+        assertSame(old, table.get(0));
+        assertNull(table.get(4));
+        assertSame(old, table.remove(0));
+        assertNull(table.remove(0));
+        assertFalse(table.remove(old));
+
+        // full
+        for (int i = 0; i < 4; i++) {
+            table.put(new Request(table.reserve()));
+        }
+        assertEquals(-1, table.reserve());
+    }
+
+    @Test
+    public void issuesAndCompletesFromManyThreads() throws Exception {
+        final ResponseTable<Request> table = new ResponseTable<>(64);
+        final int perThread = 100000;
+        final AtomicIntegerArray completed = new AtomicIntegerArray(8 * perThread);
+        final AtomicInteger lost = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        int id = table.reserve();
+                        table.put(new Request(id));
+                        Request request = table.remove(id);
+                        if (request == null || request.id != id) {
+                            lost.incrementAndGet();
+                        } else if (id < completed.length()) {
+                            completed.incrementAndGet(id);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, lost.get());
+        // ids are handed out once each
+        for (int i = 0; i < completed.length(); i++) {
+            assertTrue(completed.get(i) <= 1);
+        }
+    }
+}
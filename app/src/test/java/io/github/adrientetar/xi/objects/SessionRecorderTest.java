@@ -0,0 +1,113 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records traffic through wrapped streams, and plays it back in place of xi-core.
+ */
+
+public class SessionRecorderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static List<String> read(byte[] recording, int direction) throws Exception {
+        SessionReplay replay = new SessionReplay(new ByteArrayInputStream(recording));
+        List<String> lines = new ArrayList<>();
+        long time = 0;
+        while (replay.next()) {
+            assertTrue(replay.time >= time);
+            time = replay.time;
+            if (replay.direction == direction) {
+                lines.add(new String(replay.line, 0, replay.length, UTF_8));
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void recordsWholeLines() throws Exception {
+        SessionRecorder recorder = new SessionRecorder();
+        byte[] inbound = "ial\":1}\n{\"id\":0,\"result\":\"1\"}\n{\"method\":\"upd".getBytes(UTF_8);
+        InputStream in = recorder.inbound(new ByteArrayInputStream(inbound));
+        OutputStream out = recorder.outbound(new ByteArrayOutputStream());
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+
+        // started in the middle of a line, which is left out
+        recorder.inbound(new ByteArrayInputStream("{\"part".getBytes(UTF_8))).read(new byte[6]);
+        recorder.start(recording);
+        out.write("{\"id\":0,\"method\":\"new_tab\",\"params\":{}}\n".getBytes(UTF_8));
+        byte[] buffer = new byte[5];
+        while (in.read(buffer) != -1) {}
+        recorder.stop();
+
+        assertEquals(1, read(recording.toByteArray(), SessionRecorder.OUTBOUND).size());
+        List<String> lines = read(recording.toByteArray(), SessionRecorder.INBOUND);
+        assertEquals(1, lines.size());
+        assertEquals("{\"id\":0,\"result\":\"1\"}", lines.get(0));
+    }
+
+    @Test
+    public void replaysInPlaceOfCore() throws Exception {
+        Random random = new Random(1);
+        String first = Traces.update(0, 0, 50, 1000, random);
+        String second = Traces.update(0, 10, 50, 1000, random);
+        SessionRecorder recorder = new SessionRecorder();
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+        recorder.start(recording);
+        InputStream in = recorder.inbound(new ByteArrayInputStream((first + second).getBytes(UTF_8)));
+        in.read(new byte[first.getBytes(UTF_8).length]);
+        Thread.sleep(100);
+        while (in.read(new byte[4096]) != -1) {}
+        recorder.stop();
+
+        for (boolean realtime : new boolean[]{true, false}) {
+            ReplayTransport transport = new ReplayTransport(
+                    new SessionReplay(new ByteArrayInputStream(recording.toByteArray())), realtime);
+            final List<Update> updates = new ArrayList<>();
+            XiDecoder decoder = new XiDecoder(transport.getInputStream(), new XiDecoder.Dispatcher() {
+                @Override
+                public boolean expectsLines(int id) {
+                    return false;
+                }
+
+                @Override
+                public void onResponse(int id, Object result) {}
+
+                @Override
+                public void onError(int id, Object error) {}
+
+                @Override
+                public void onUpdate(Update update) {
+                    updates.add(update);
+                }
+            });
+            long start = System.nanoTime();
+            assertTrue(decoder.next());
+            assertTrue(decoder.next());
+            if (realtime) {
+                assertTrue(System.nanoTime() - start >= 90000000);
+            }
+            transport.awaitDone();
+            assertEquals(2, transport.getSentCount());
+            assertEquals(0, updates.get(0).firstLine);
+            assertEquals(10, updates.get(1).firstLine);
+            assertEquals(50, updates.get(1).lines.length);
+
+            // what is sent goes nowhere, and closing ends the session
+            transport.getOutputStream().write("{\"method\":\"edit\"}\n".getBytes(UTF_8));
+            transport.close();
+            assertEquals(0, transport.waitFor());
+            transport.destroy();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package io.github.adrientetar.xi.objects;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the supervisor and tab replay against a fake xi-core that crashes on demand.
+ */
+
+public class SupervisorTest {
+    private final List<FakeCore> cores = new ArrayList<>();
+    private Supervisor supervisor;
+
+    /**
+     * Answers new_tab with names counting from 1 like xi-core does, and records the rest.
+     */
+    private static class FakeCore extends Process {
+        final PipedOutputStream stdin = new PipedOutputStream();
+        final PipedInputStream stdout = new PipedInputStream(1 << 16);
+        final List<JSONObject> received = new ArrayList<>();
+        private final PipedOutputStream out = new PipedOutputStream();
+        private final CountDownLatch exited = new CountDownLatch(1);
+        private volatile int exitValue = -1;
+        private int tabs = 0;
+
+        FakeCore() throws IOException {
+            final PipedInputStream in = new PipedInputStream(this.stdin, 1 << 16);
+            this.out.connect(this.stdout);
+            Thread thread = new Thread("FakeCore") {
+                @Override
+                public void run() {
+                    try {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            FakeCore.this.handle(new JSONObject(line));
+                        }
+                    } catch (Exception e) {
+                        // crashed
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void handle(JSONObject message) throws Exception {
+            synchronized (this.received) {
+                this.received.add(message);
+                this.received.notifyAll();
+            }
+            if ("new_tab".equals(message.getString("method"))) {
+                this.tabs += 1;
+                String response = "{\"id\":" + message.getInt("id") + ",\"result\":\"" + this.tabs + "\"}\n";
+                this.out.write(response.getBytes("UTF-8"));
+                this.out.flush();
+            }
+        }
+
+        List<JSONObject> awaitReceived(int count) throws InterruptedException {
+            synchronized (this.received) {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (this.received.size() < count && System.currentTimeMillis() < deadline) {
+                    this.received.wait(100);
+                }
+                return new ArrayList<>(this.received);
+            }
+        }
+
+        void crash() {
+            this.exitValue = 101;
+            try {
+                this.out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.exited.countDown();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return this.stdin;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return this.stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new PipedInputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            this.exited.await();
+            return this.exitValue;
+        }
+
+        @Override
+        public int exitValue() {
+            if (this.exited.getCount() > 0) {
+                throw new IllegalThreadStateException();
+            }
+            return this.exitValue;
+        }
+
+        @Override
+        public void destroy() {
+            this.crash();
+        }
+    }
+
+    /**
+     * Client end of a connection, sends like the bridge does and dispatches responses.
+     */
+    private static class Client implements TabRegistry.Replayer, XiDecoder.Dispatcher {
+        private final FakeCore core;
+        private final XiEncoder encoder = new XiEncoder();
+        private final XiDecoder decoder;
+        private final HashMap<Integer, XiBridge.ResponseHandler> handlers = new HashMap<>();
+        private int id = 0;
+
+        Client(FakeCore core) {
+            this.core = core;
+            this.decoder = new XiDecoder(core.getInputStream(), this);
+        }
+
+        private void flush() {
+            try {
+                this.encoder.writeTo(this.core.getOutputStream());
+                this.core.getOutputStream().flush();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            } finally {
+                this.encoder.reset();
+            }
+        }
+
+        void receive(int count) throws Exception {
+            for (int i = 0; i < count; i++) {
+                assertTrue(this.decoder.next());
+            }
+        }
+
+        @Override
+        public void newTab(XiBridge.ResponseHandler handler) {
+            this.handlers.put(this.id, handler);
+            this.encoder.raw("{\"id\":" + this.id + ",\"method\":\"new_tab\",\"params\":{}}");
+            this.id += 1;
+            this.flush();
+        }
+
+        @Override
+        public void open(String coreTab, String filename) {
+            this.encoder.raw("{\"method\":\"edit\",\"params\":{\"method\":\"open\",\"tab\":\"" +
+                    coreTab + "\",\"params\":{\"filename\":\"" + filename + "\"}}}");
+            this.flush();
+        }
+
+        @Override
+        public void scroll(String coreTab, int firstLine, int lastLine) {
+            this.encoder.editArray(coreTab, "scroll", firstLine, lastLine);
+            this.flush();
+        }
+
+        @Override
+        public boolean expectsLines(int id) {
+            return false;
+        }
+
+        @Override
+        public void onResponse(int id, Object result) {
+            this.handlers.remove(id).invoke(result);
+        }
+
+        @Override
+        public void onError(int id, Object error) {}
+
+        @Override
+        public void onUpdate(Update update) {
+        }
+    }
+
+    private static class Recorder implements XiBridge.OnUpdateListener {
+        final List<Update> updates = new ArrayList<>();
+
+        @Override
+        public void onUpdate(Update update) {
+            this.updates.add(update);
+        }
+    }
+
+    private Supervisor start(Supervisor.Listener listener) throws IOException {
+        this.supervisor = new Supervisor(new Supervisor.Launcher() {
+            @Override
+            public Transport launch() throws IOException {
+                FakeCore core = new FakeCore();
+                synchronized (SupervisorTest.this.cores) {
+                    SupervisorTest.this.cores.add(core);
+                }
+                return new StdioTransport(core);
+            }
+        }, listener, 10, 80);
+        this.supervisor.start();
+        return this.supervisor;
+    }
+
+    private FakeCore core(int index) {
+        synchronized (this.cores) {
+            return this.cores.get(index);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (this.supervisor != null) {
+            this.supervisor.stop();
+        }
+    }
+
+    @Test
+    public void restartsAndReplaysTabs() throws Exception {
+        final BlockingQueue<Transport> restarted = new LinkedBlockingQueue<>();
+        final List<Integer> exits = new ArrayList<>();
+        Supervisor supervisor = this.start(new Supervisor.Listener() {
+            @Override
+            public void onExit(Transport transport, int exitValue) {
+                synchronized (exits) {
+                    exits.add(exitValue);
+                }
+            }
+
+            @Override
+            public void onRestart(Transport transport) {
+                restarted.add(transport);
+            }
+        });
+
+        // open two tabs on the first core
+        final TabRegistry tabs = new TabRegistry();
+        FakeCore first = this.core(0);
+        Client client = new Client(first);
+        for (int i = 0; i < 2; i++) {
+            client.newTab(new XiBridge.ResponseHandler() {
+                @Override
+                public void invoke(Object result) {
+                    tabs.add((String) result);
+                }
+            });
+        }
+        client.receive(2);
+        Recorder one = new Recorder();
+        Recorder two = new Recorder();
+        tabs.register("1", one);
+        tabs.register("2", two);
+        tabs.setFilename("1", "/sdcard/a.txt");
+        tabs.setScroll("1", 40, 70);
+        tabs.setScroll("2", 0, 30);
+
+        first.crash();
+        Transport transport = restarted.poll(5, TimeUnit.SECONDS);
+        assertNotNull(transport);
+        assertSame(transport, supervisor.getTransport());
+        FakeCore second = this.core(1);
+        assertNotSame(first, second);
+        assertEquals(1, supervisor.getRestartCount());
+        assertEquals(101, (int) exits.get(0));
+
+        client = new Client(second);
+        tabs.replay(client);
+        assertNull(tabs.toCore("1"));
+        client.receive(2);
+
+        // two new_tab, one open, two scroll
+        List<JSONObject> received = second.awaitReceived(5);
+        assertEquals(5, received.size());
+        int newTabs = 0;
+        int opens = 0;
+        int scrolls = 0;
+        for (JSONObject message : received) {
+            if (message.getString("method").equals("new_tab")) {
+                newTabs += 1;
+                continue;
+            }
+            JSONObject params = message.getJSONObject("params");
+            String tab = tabs.fromCore(params.getString("tab"));
+            if (params.getString("method").equals("open")) {
+                opens += 1;
+                assertEquals("1", tab);
+                assertEquals("/sdcard/a.txt", params.getJSONObject("params").getString("filename"));
+            } else {
+                scrolls += 1;
+                assertEquals("scroll", params.getString("method"));
+                assertEquals(tab.equals("1") ? 40 : 0, params.getJSONArray("params").getInt(0));
+            }
+        }
+        assertEquals(2, newTabs);
+        assertEquals(1, opens);
+        assertEquals(2, scrolls);
+
+        for (String tab : new String[]{"1", "2"}) {
+            assertNotNull(tabs.toCore(tab));
+            assertEquals(tab, tabs.fromCore(tabs.toCore(tab)));
+        }
+        assertTrue(one.updates.get(0).stale);
+        assertTrue(two.updates.get(0).stale);
+
+        // and again
+        second.crash();
+        assertNotNull(restarted.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, supervisor.getRestartCount());
+        assertEquals(3, this.cores.size());
+    }
+
+    @Test
+    public void namesTabsOpenedAfterRestartApart() throws Exception {
+        final BlockingQueue<Transport> restarted = new LinkedBlockingQueue<>();
+        this.start(new Supervisor.Listener() {
+            @Override
+            public void onExit(Transport transport, int exitValue) {
+            }
+
+            @Override
+            public void onRestart(Transport transport) {
+                restarted.add(transport);
+            }
+        });
+
+        final TabRegistry tabs = new TabRegistry();
+        final List<String> opened = new ArrayList<>();
+        XiBridge.ResponseHandler add = new XiBridge.ResponseHandler() {
+            @Override
+            public void invoke(Object result) {
+                opened.add(tabs.add((String) result));
+            }
+        };
+        Client client = new Client(this.core(0));
+        for (int i = 0; i < 3; i++) {
+            client.newTab(add);
+        }
+        client.receive(3);
+        assertEquals("1", opened.get(0));
+        tabs.remove("1");
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        tabs.register("2", a);
+        tabs.register("3", b);
+
+        // the new xi-core calls the replayed tabs 1 and 2, the next one 3
+        this.core(0).crash();
+        assertNotNull(restarted.poll(5, TimeUnit.SECONDS));
+        client = new Client(this.core(1));
+        tabs.replay(client);
+        client.receive(2);
+        client.newTab(add);
+        client.receive(1);
+        String c = opened.get(3);
+        assertEquals("3", tabs.toCore(c));
+        assertNotEquals("2", c);
+        assertNotEquals("3", c);
+        Recorder third = new Recorder();
+        tabs.register(c, third);
+
+        a.updates.clear();
+        b.updates.clear();
+        assertTrue(tabs.dispatch(Update.invalidate(tabs.fromCore("3"))));
+        assertEquals(1, third.updates.size());
+        assertEquals(0, a.updates.size() + b.updates.size());
+        assertTrue(tabs.dispatch(Update.invalidate(tabs.fromCore(tabs.toCore("3")))));
+        assertEquals(1, b.updates.size());
+        assertTrue(tabs.dispatch(Update.invalidate(tabs.fromCore(tabs.toCore("2")))));
+        assertEquals(1, a.updates.size());
+    }
+
+    @Test
+    public void backsOffWhileCrashing() {
+        Supervisor supervisor = new Supervisor(null, null, 100, 1000);
+        assertEquals(100, supervisor.nextBackoff(0, 10));
+        assertEquals(200, supervisor.nextBackoff(100, 10));
+        assertEquals(1000, supervisor.nextBackoff(800, 10));
+        // stayed up long enough, start over
+        assertEquals(100, supervisor.nextBackoff(1000, 60000));
+    }
+}
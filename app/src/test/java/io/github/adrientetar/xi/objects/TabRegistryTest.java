@@ -0,0 +1,69 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks per-tab routing and collapsing of hidden tab updates.
+ */
+
+public class TabRegistryTest {
+    private static class Recorder implements XiBridge.OnUpdateListener {
+        final List<Update> updates = new ArrayList<>();
+
+        @Override
+        public void onUpdate(Update update) {
+            this.updates.add(update);
+        }
+    }
+
+    private static Update update(String tab, int height, int lines, int scrollToLine) {
+        Line[] result = new Line[lines];
+        for (int i = 0; i < lines; i++) {
+            result[i] = new Line("line\n", -1, new int[0], new int[0], new int[0], new int[0], new int[0]);
+        }
+        return new Update(tab, height, 0, result, scrollToLine, scrollToLine == -1 ? -1 : 0);
+    }
+
+    @Test
+    public void routesByTab() {
+        TabRegistry registry = new TabRegistry();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        registry.register("1", first);
+        registry.register("2", second);
+        assertTrue(registry.dispatch(update("2", 10, 1, -1)));
+        assertFalse(registry.dispatch(update("3", 10, 1, -1)));
+        assertEquals(0, first.updates.size());
+        assertEquals(1, second.updates.size());
+        registry.unregister("2");
+        assertFalse(registry.dispatch(update("2", 10, 1, -1)));
+    }
+
+    @Test
+    public void collapsesHiddenUpdates() {
+        TabRegistry registry = new TabRegistry();
+        Recorder recorder = new Recorder();
+        registry.register("1", recorder);
+        registry.setVisible("1", false);
+        registry.dispatch(update("1", 10, 5, 3));
+        registry.dispatch(update("1", 12, 0, -1));
+        registry.dispatch(update("1", -1, 0, -1));
+        assertEquals(0, recorder.updates.size());
+
+        registry.setVisible("1", true);
+        assertEquals(1, recorder.updates.size());
+        Update update = recorder.updates.get(0);
+        assertEquals(12, update.height);
+        assertEquals(3, update.scrollToLine);
+        assertEquals(0, update.lines.length);
+        assertTrue(update.stale);
+
+        registry.setVisible("1", true);
+        assertEquals(1, recorder.updates.size());
+    }
+}
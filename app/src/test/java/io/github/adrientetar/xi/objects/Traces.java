@@ -0,0 +1,70 @@
+package io.github.adrientetar.xi.objects;
+
+import java.util.Random;
+
+/**
+ * Generates xi-core traffic shaped like what the core sends while editing highlighted code.
+ */
+
+class Traces {
+    private static final String[] WORDS = {
+            "public", "static", "void", "int", "return", "this", "new", "String", "if", "else",
+            "for", "{", "}", "(", ")", ";", "=", "+", "i", "j", "\"h\u00e9llo\"", "\\t", "//",
+    };
+
+    static String update(int tab, int firstLine, int lineCount, int height, Random random) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"method\":\"update\",\"params\":{\"tab\":\"").append(tab)
+                .append("\",\"update\":{\"first_line\":").append(firstLine)
+                .append(",\"height\":").append(height)
+                .append(",\"lines\":[");
+        for (int i = 0; i < lineCount; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            line(builder, random, i == 0);
+        }
+        builder.append("],\"scrollto\":[").append(firstLine).append(",0]}}}\n");
+        return builder.toString();
+    }
+
+    static String renderLinesResponse(int id, int lineCount, Random random) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"id\":").append(id).append(",\"result\":[");
+        for (int i = 0; i < lineCount; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            line(builder, random, false);
+        }
+        builder.append("]}\n");
+        return builder.toString();
+    }
+
+    private static void line(StringBuilder builder, Random random, boolean cursor) {
+        StringBuilder text = new StringBuilder();
+        int words = 2 + random.nextInt(10);
+        int[] starts = new int[words];
+        int[] ends = new int[words];
+        for (int w = 0; w < words; w++) {
+            starts[w] = text.length();
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            ends[w] = text.length();
+            text.append(' ');
+        }
+        builder.append("[\"").append(text.toString().replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\\n\"");
+        if (cursor) {
+            builder.append(",[\"cursor\",").append(ends[0]).append(']');
+        }
+        for (int w = 0; w < words; w++) {
+            builder.append(",[\"fg\",").append(starts[w]).append(',').append(ends[w])
+                    .append(',').append(4278190080L + random.nextInt(0xffffff))
+                    .append(',').append(random.nextInt(8)).append(']');
+        }
+        if (random.nextInt(10) == 0) {
+            builder.append(",[\"sel\",0,").append(ends[0]).append(']');
+        }
+        builder.append(']');
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pushes bytes and messages through both ends of the loopback and socket transports.
+ */
+
+public class TransportTest {
+
+    private static Thread writeAsync(final OutputStream out, final byte[] data) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    out.write(data);
+                    out.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int count = 0;
+        while (count < length) {
+            int n = in.read(data, count, length - count);
+            assertTrue(n != -1);
+            count += n;
+        }
+        return data;
+    }
+
+    private static void assertConnected(Transport a, Transport b) throws Exception {
+        // more than fits in a buffer, wrapping around
+        byte[] data = new byte[300000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        Thread writer = writeAsync(a.getOutputStream(), data);
+        assertTrue(Arrays.equals(data, readFully(b.getInputStream(), data.length)));
+        writer.join();
+
+        writer = writeAsync(b.getOutputStream(), "{\"id\":3,\"result\":\"7\"}\n".getBytes("UTF-8"));
+        final Object[] result = {null};
+        XiDecoder decoder = new XiDecoder(a.getInputStream(), new XiDecoder.Dispatcher() {
+            @Override
+            public boolean expectsLines(int id) {
+                return false;
+            }
+
+            @Override
+            public void onResponse(int id, Object value) {
+                result[0] = value;
+            }
+
+            @Override
+            public void onError(int id, Object error) {}
+
+            @Override
+            public void onUpdate(Update update) {}
+        });
+        assertTrue(decoder.next());
+        assertEquals("7", result[0]);
+        writer.join();
+
+        // closing one end lets the other read to the end, and see it go
+        a.close();
+        assertEquals(-1, b.getInputStream().read());
+        assertEquals(0, b.waitFor());
+        b.destroy();
+        a.destroy();
+    }
+
+    @Test
+    public void loopbackCarriesBothWays() throws Exception {
+        Transport[] ends = Transport.loopback();
+        assertConnected(ends[0], ends[1]);
+    }
+
+    @Test
+    public void socketCarriesBothWays() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            Transport client = Transport.socket("127.0.0.1", server.socket().getLocalPort()).open();
+            Transport core = new SocketTransport(server.accept());
+            assertConnected(client, core);
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.github.adrientetar.xi.objects;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the streaming decoder against org.json on the same input.
+ */
+public class XiDecoderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Recorder implements XiDecoder.Dispatcher {
+        final List<Object> results = new ArrayList<>();
+        final List<Object> errors = new ArrayList<>();
+        final List<Update> updates = new ArrayList<>();
+
+        @Override
+        public boolean expectsLines(int id) {
+            return id == 2;
+        }
+
+        @Override
+        public void onResponse(int id, Object result) {
+            this.results.add(id);
+            this.results.add(result);
+        }
+
+        @Override
+        public void onError(int id, Object error) {
+            this.errors.add(id);
+            this.errors.add(error);
+        }
+
+        @Override
+        public void onUpdate(Update update) {
+            this.updates.add(update);
+        }
+    }
+
+    private static Recorder decode(String input) throws Exception {
+        Recorder recorder = new Recorder();
+        XiDecoder decoder = new XiDecoder(new ByteArrayInputStream(input.getBytes(UTF_8)), recorder);
+        while (decoder.next()) {}
+        return recorder;
+    }
+
+    @Test
+    public void decodesErrors() throws Exception {
+        Recorder recorder = decode("{\"id\":2,\"error\":{\"code\":-32601,\"message\":\"no\"}}\n" +
+                "{\"id\":3}\n{\"id\":4,\"result\":null}\n");
+        // handlers only get results, even a null one
+        assertEquals(2, recorder.results.size());
+        assertEquals(4, recorder.results.get(0));
+        assertEquals(4, recorder.errors.size());
+        assertEquals(2, recorder.errors.get(0));
+        assertEquals(-32601, ((JSONObject) recorder.errors.get(1)).getInt("code"));
+        assertEquals(3, recorder.errors.get(2));
+        assertNull(recorder.errors.get(3));
+    }
+
+    @Test
+    public void decodesResponses() throws Exception {
+        Recorder recorder = decode("{\"id\":0,\"result\":\"0\"}\n{\"result\":[1,\"a\\u00e9\",null],\"id\":1}\n");
+        assertEquals(4, recorder.results.size());
+        assertEquals(0, recorder.results.get(0));
+        assertEquals("0", recorder.results.get(1));
+        assertEquals(1, recorder.results.get(2));
+        JSONArray result = (JSONArray) recorder.results.get(3);
+        assertEquals(1, result.getInt(0));
+        assertEquals("a\u00e9", result.getString(1));
+        assertTrue(result.isNull(2));
+    }
+
+    @Test
+    public void decodesUpdatesLikeOrgJson() throws Exception {
+        Random random = new Random(42);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            input.append(Traces.update(0, i, 30, 1000, random));
+        }
+        Recorder recorder = decode(input.toString());
+        String[] lines = input.toString().split("\n");
+        assertEquals(lines.length, recorder.updates.size());
+        for (int i = 0; i < lines.length; i++) {
+            JSONObject params = new JSONObject(lines[i]).getJSONObject("params");
+            JSONObject expected = params.getJSONObject("update");
+            Update update = recorder.updates.get(i);
+            assertEquals(params.getString("tab"), update.tab);
+            assertEquals(expected.getInt("first_line"), update.firstLine);
+            assertEquals(expected.getInt("height"), update.height);
+            assertEquals(expected.getJSONArray("scrollto").getInt(0), update.scrollToLine);
+            assertLinesEqual(expected.getJSONArray("lines"), update.lines);
+        }
+    }
+
+    private static void assertLinesEqual(JSONArray expected, Line[] lines) throws Exception {
+        assertEquals(expected.length(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            JSONArray line = expected.getJSONArray(i);
+            assertEquals(line.getString(0), lines[i].text);
+            int count = 0;
+            for (int j = 1; j < line.length(); j++) {
+                JSONArray annotation = line.getJSONArray(j);
+                if (annotation.getString(0).equals("cursor")) {
+                    assertEquals(annotation.getInt(1), lines[i].cursor);
+                    continue;
+                }
+                if (annotation.getString(0).equals("fg")) {
+                    assertEquals(Annotation.FG, lines[i].getType(count));
+                    assertEquals(annotation.getInt(3), lines[i].getColor(count));
+                    assertEquals(annotation.getInt(4), lines[i].getFontStyle(count));
+                }
+                assertEquals(annotation.getInt(1), lines[i].getStart(count));
+                assertEquals(annotation.getInt(2), lines[i].getEnd(count));
+                count++;
+            }
+            assertEquals(count, lines[i].getAnnotationCount());
+        }
+    }
+
+    @Test
+    public void decodesRenderLines() throws Exception {
+        String input = Traces.renderLinesResponse(2, 10, new Random(1));
+        Recorder recorder = decode(input);
+        assertEquals(2, recorder.results.get(0));
+        assertLinesEqual(new JSONObject(input).getJSONArray("result"), (Line[]) recorder.results.get(1));
+    }
+
+    @Test
+    public void decodedLinesCompareByContent() throws Exception {
+        String input = Traces.renderLinesResponse(2, 10, new Random(1));
+        Line[] streamed = (Line[]) decode(input).results.get(1);
+        Line[] built = XiDecoder.makeLines(new JSONObject(input).getJSONArray("result"));
+        assertArrayEquals(built, streamed);
+        assertEquals(built[0].hashCode(), streamed[0].hashCode());
+        assertNotEquals(streamed[0], streamed[1]);
+    }
+
+    @Test
+    public void decodesParamsBeforeMethod() throws Exception {
+        Recorder recorder = decode("{\"params\":{\"update\":{\"first_line\":3},\"tab\":\"1\"},\"method\":\"update\"}");
+        Update update = recorder.updates.get(0);
+        assertEquals("1", update.tab);
+        assertEquals(3, update.firstLine);
+        assertFalse(update.hasHeight());
+        assertFalse(update.hasScrollTo());
+    }
+
+    @Test
+    public void recoversFromMalformedMessage() throws Exception {
+        Recorder recorder = new Recorder();
+        String input = "{\"id\":0,\"result\":[}\n{\"id\":1,\"result\":\"ok\"}\n";
+        XiDecoder decoder = new XiDecoder(new ByteArrayInputStream(input.getBytes(UTF_8)), recorder);
+        try {
+            decoder.next();
+            fail();
+        } catch (org.json.JSONException e) {
+            decoder.recover();
+        }
+        assertTrue(decoder.next());
+        assertEquals(1, recorder.results.get(0));
+        assertEquals("ok", recorder.results.get(1));
+        assertFalse(decoder.next());
+    }
+}
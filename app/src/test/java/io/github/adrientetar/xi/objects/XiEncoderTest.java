@@ -0,0 +1,40 @@
+package io.github.adrientetar.xi.objects;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Expected output is what Android's org.json wrote for the same messages.
+ */
+public class XiEncoderTest {
+    private static String encode(OutboundMessage message) throws Exception {
+        XiEncoder encoder = new XiEncoder(8);
+        message.encode(encoder);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encoder.writeTo(os);
+        return os.toString("UTF-8");
+    }
+
+    @Test
+    public void encodesFixedShapes() throws Exception {
+        assertEquals("{\"method\":\"edit\",\"params\":{\"method\":\"scroll\",\"tab\":\"0\",\"params\":[3,-13]}}\n",
+                encode(OutboundMessage.scroll("0", 3, -13)));
+        assertEquals("{\"method\":\"edit\",\"params\":{\"method\":\"drag\",\"tab\":\"1\",\"params\":[10,2147483647,0]}}\n",
+                encode(OutboundMessage.drag("1", 10, Integer.MAX_VALUE, 0)));
+        assertEquals("{\"method\":\"edit\",\"params\":{\"method\":\"click\",\"tab\":\"1\",\"params\":[0,5,0,1]}}\n",
+                encode(OutboundMessage.click("1", 0, 5, 0, 1)));
+        assertEquals("{\"method\":\"edit\",\"params\":{\"method\":\"undo\",\"tab\":\"1\",\"params\":{}}}\n",
+                encode(OutboundMessage.edit("1", "undo")));
+        assertEquals("{\"id\":42,\"method\":\"edit\",\"params\":{\"method\":\"render_lines\",\"tab\":\"2\",\"params\":{\"first_line\":0,\"last_line\":40}}}\n",
+                encode(OutboundMessage.renderLines(42, "2", 0, 40)));
+    }
+
+    @Test
+    public void escapesLikeJsonStringer() throws Exception {
+        assertEquals("{\"method\":\"edit\",\"params\":{\"method\":\"insert\",\"tab\":\"0\",\"params\":{\"chars\":\"a\\\"\\\\\\/\\t\\n\\u0001\u00e9\u20ac\ud83d\ude00\"}}}\n",
+                encode(OutboundMessage.insert("0", "a\"\\/\t\n\u0001\u00e9\u20ac\ud83d\ude00")));
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.adrientetar.xi.widgets;
+
+import android.text.style.CharacterStyle;
+import android.text.style.MetricAffectingSpan;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+import io.github.adrientetar.xi.objects.Annotation;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the spans laid out lines get are reused across lines and updates.
+ */
+
+public class StyleTableTest {
+    private static final int BLUE = 0xff0000ff;
+
+    @Test
+    public void reusesSpansAcrossLines() {
+        StyleTable<CharacterStyle> table = new StyleTable<>(TextStyleSpan.FACTORY);
+        CharacterStyle first = table.get(BLUE, Annotation.STYLE_BOLD);
+        CharacterStyle second = table.get(BLUE, Annotation.STYLE_BOLD);
+        assertNotSame(first, second);
+        assertNotSame(first, table.get(BLUE, 0));
+        table.nextLine();
+        assertSame(first, table.get(BLUE, Annotation.STYLE_BOLD));
+        assertSame(second, table.get(BLUE, Annotation.STYLE_BOLD));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void affectsMetricsOnlyForBoldAndItalic() {
+        StyleTable<CharacterStyle> table = new StyleTable<>(TextStyleSpan.FACTORY);
+        assertTrue(table.get(BLUE, 0) instanceof TextColorSpan);
+        assertTrue(table.get(BLUE, Annotation.STYLE_UNDERLINE) instanceof TextColorSpan);
+        assertTrue(table.get(BLUE, Annotation.STYLE_BOLD) instanceof MetricAffectingSpan);
+        assertTrue(table.get(BLUE, Annotation.STYLE_ITALIC | Annotation.STYLE_UNDERLINE)
+                instanceof MetricAffectingSpan);
+    }
+
+    @Test
+    public void steadyStateTypingDoesNotAllocate() {
+        StyleTable<CharacterStyle> table = new StyleTable<>(TextStyleSpan.FACTORY);
+        Set<CharacterStyle> spans = Collections.newSetFromMap(
+                new IdentityHashMap<CharacterStyle, Boolean>());
+        Random random = new Random(1);
+        // a theme has a few dozen styles, a line of code a dozen or so runs
+        int[] colors = new int[24];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        int[][] screen = new int[60][];
+        for (int i = 0; i < screen.length; i++) {
+            screen[i] = new int[random.nextInt(16)];
+            for (int j = 0; j < screen[i].length; j++) {
+                screen[i][j] = random.nextInt(colors.length * 8);
+            }
+        }
+
+        // every keystroke lays out the lines around the cursor again
+        int warmup = 0;
+        for (int update = 0; update < 2000; update++) {
+            if (update == 100) {
+                warmup = spans.size();
+            }
+            int[] edited = screen[random.nextInt(screen.length)];
+            if (edited.length > 0) {
+                edited[random.nextInt(edited.length)] = random.nextInt(colors.length * 8);
+            }
+            for (int[] line : screen) {
+                table.nextLine();
+                Set<CharacterStyle> used = Collections.newSetFromMap(
+                        new IdentityHashMap<CharacterStyle, Boolean>());
+                for (int style : line) {
+                    CharacterStyle span = table.get(colors[style / 8], style % 8);
+                    // a span can only be set once on a line
+                    assertTrue(used.add(span));
+                    spans.add(span);
+                }
+            }
+        }
+        assertTrue(warmup > 0);
+        // new spans only when a line gets more runs of one style than any line before
+        assertTrue(spans.size() - warmup <= colors.length * 8);
+        assertTrue(spans.size() <= 16 * table.size());
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.adrientetar.xi.objects;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of what the watcher thread reads from xi-core, before it is handed to the main
+ * thread: a trace of updates while typing, and one of render_lines responses while scrolling.
+ * The updates are also decoded the former way, a readLine() and org.json per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DecodeBenchmark {
+    static final int MESSAGES = 20;
+
+    @Param({"10", "100", "500"})
+    public int lineCount;
+
+    private byte[] updates;
+    private byte[] responses;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(this.lineCount);
+        StringBuilder updates = new StringBuilder();
+        StringBuilder responses = new StringBuilder();
+        for (int i = 0; i < MESSAGES; i++) {
+            updates.append(Traces.update(0, i, this.lineCount, 10000, random));
+            responses.append(Traces.renderLinesResponse(i, this.lineCount, random));
+        }
+        this.updates = updates.toString().getBytes(Charset.forName("UTF-8"));
+        this.responses = responses.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    static int decode(byte[] trace, final boolean lines) throws Exception {
+        final int[] count = {0};
+        XiDecoder decoder = new XiDecoder(new ByteArrayInputStream(trace), new XiDecoder.Dispatcher() {
+            @Override
+            public boolean expectsLines(int id) {
+                return lines;
+            }
+
+            @Override
+            public void onResponse(int id, Object result) {
+                count[0] += ((Line[]) result).length;
+            }
+
+            @Override
+            public void onError(int id, Object error) {}
+
+            @Override
+            public void onUpdate(Update update) {
+                count[0] += update.lines.length;
+            }
+        });
+        while (decoder.next()) {}
+        return count[0];
+    }
+
+    @Benchmark
+    public int updates() throws Exception {
+        return decode(this.updates, false);
+    }
+
+    @Benchmark
+    public int updatesOrgJson() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(this.updates), Charset.forName("UTF-8")));
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JSONObject params = new JSONObject(line).getJSONObject("params");
+            params.getString("tab");
+            JSONArray lines = params.getJSONObject("update").getJSONArray("lines");
+            count += lines.length();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int renderLines() throws Exception {
+        return decode(this.responses, true);
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.adrientetar.xi.objects;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a frame's worth of outbound messages as the writer thread does it, against
+ * building the same messages with org.json.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EncodeBenchmark {
+    // Messages sent in one frame: typing, scrolling and the lines it needs
+    @Param({"4", "32", "256"})
+    public int batchSize;
+
+    private final OutboundQueue queue = new OutboundQueue();
+    private final XiEncoder encoder = new XiEncoder();
+    private final List<OutboundMessage> batch = new ArrayList<>();
+
+    private OutboundMessage message(int i) {
+        switch (i % 4) {
+            case 0:
+                return OutboundMessage.insert("1", "x");
+            case 1:
+                return OutboundMessage.scroll("1", i, i + 40);
+            case 2:
+                return OutboundMessage.renderLines(i, "1", i, i + 40);
+            default:
+                return OutboundMessage.click("1", i, 4, 0, 1);
+        }
+    }
+
+    @Benchmark
+    public int queued() {
+        for (int i = 0; i < this.batchSize; i++) {
+            this.queue.add(this.message(i));
+        }
+        this.queue.drainTo(this.batch);
+        for (OutboundMessage message : this.batch) {
+            message.encode(this.encoder);
+        }
+        int size = this.encoder.size();
+        this.encoder.reset();
+        this.batch.clear();
+        return size;
+    }
+
+    @Benchmark
+    public int orgJson() throws Exception {
+        int size = 0;
+        for (int i = 0; i < this.batchSize; i++) {
+            JSONObject params = new JSONObject();
+            params.put("method", "scroll");
+            params.put("tab", "1");
+            params.put("params", new JSONArray().put(i).put(i + 40));
+            JSONObject root = new JSONObject();
+            root.put("method", "edit");
+            root.put("params", params);
+            size += root.toString().length() + 1;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.adrientetar.xi.objects;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An update while typing, from its bytes to the runs of changed lines that need a layout,
+ * as XiView.updateLines finds them against the lines it has cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LineModelBenchmark {
+    @Param({"10", "100", "500"})
+    public int lineCount;
+
+    // Lines that differ from the cache, one for a keystroke
+    @Param({"1", "10"})
+    public int changed;
+
+    private byte[] update;
+    private Line[] cache;
+
+    private static Line[] decode(byte[] trace) throws Exception {
+        final Line[][] lines = {null};
+        XiDecoder decoder = new XiDecoder(new ByteArrayInputStream(trace), new XiDecoder.Dispatcher() {
+            @Override
+            public boolean expectsLines(int id) {
+                return false;
+            }
+
+            @Override
+            public void onResponse(int id, Object result) {}
+
+            @Override
+            public void onError(int id, Object error) {}
+
+            @Override
+            public void onUpdate(Update update) {
+                lines[0] = update.lines;
+            }
+        });
+        decoder.next();
+        return lines[0];
+    }
+
+    private static byte[] trace(long seed, int lineCount) {
+        String update = Traces.update(0, 0, lineCount, 10000, new Random(seed));
+        return update.getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        this.update = trace(this.lineCount, this.lineCount);
+        this.cache = decode(this.update);
+        Line[] other = decode(trace(-1, this.lineCount));
+        Random random = new Random(0);
+        for (int i = 0; i < this.changed; i++) {
+            int line = random.nextInt(this.lineCount);
+            this.cache[line] = other[line];
+        }
+    }
+
+    @Benchmark
+    public int changedRuns() throws Exception {
+        Line[] lines = decode(this.update);
+        int runs = 0;
+        boolean inRun = false;
+        for (int i = 0; i < lines.length; i++) {
+            boolean unchanged = this.cache[i] != null && this.cache[i].equals(lines[i]);
+            if (!unchanged && !inRun) {
+                runs += 1;
+            }
+            inRun = !unchanged;
+        }
+        return runs;
+    }
+}
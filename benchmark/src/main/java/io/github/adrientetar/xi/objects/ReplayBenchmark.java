@@ -0,0 +1,122 @@
+package io.github.adrientetar.xi.objects;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plays a recorded session back as fast as possible, decoding everything xi-core sent.
+ *
+ * Pass a recording made with XiBridge.startRecording with -p recording=path, else a
+ * scrolling session is made up from generated traces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReplayBenchmark {
+    @Param({""})
+    public String recording;
+
+    private byte[] session;
+    private int messages = 0;
+    // Requests whose response the bridge decodes as lines
+    private final HashSet<Integer> lineRequests = new HashSet<>();
+    private static final Pattern RENDER_LINES = Pattern.compile("^\\{\"id\":(\\d+),\"method\":\"edit\".*\"method\":\"render_lines\"");
+
+    private static byte[] makeUp() throws Exception {
+        Random random = new Random(0);
+        SessionRecorder recorder = new SessionRecorder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.start(out);
+        OutputStream requests = recorder.outbound(new ByteArrayOutputStream());
+        XiEncoder encoder = new XiEncoder();
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < 200; i++) {
+            encoder.renderLines(i, "0", i * 10 + 50, i * 10 + 150);
+            encoder.writeTo(requests);
+            encoder.reset();
+            String trace = Traces.renderLinesResponse(i, 100, random) +
+                    Traces.update(0, i * 10, 50, 100000, random);
+            InputStream in = recorder.inbound(new ByteArrayInputStream(trace.getBytes(Charset.forName("UTF-8"))));
+            while (in.read(buffer) != -1) {}
+        }
+        recorder.stop();
+        return out.toByteArray();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        if (this.recording.isEmpty()) {
+            this.session = makeUp();
+        } else {
+            this.session = Files.readAllBytes(new File(this.recording).toPath());
+        }
+        SessionReplay replay = new SessionReplay(new ByteArrayInputStream(this.session));
+        Charset utf8 = Charset.forName("UTF-8");
+        while (replay.next()) {
+            if (replay.direction == SessionRecorder.INBOUND) {
+                this.messages += 1;
+                continue;
+            }
+            Matcher matcher = RENDER_LINES.matcher(new String(replay.line, 0, replay.length, utf8));
+            if (matcher.find()) {
+                this.lineRequests.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+    }
+
+    @Benchmark
+    public int replay() throws Exception {
+        ReplayTransport transport = new ReplayTransport(
+                new SessionReplay(new ByteArrayInputStream(this.session)), false);
+        final int[] count = {0};
+        XiDecoder decoder = new XiDecoder(transport.getInputStream(), new XiDecoder.Dispatcher() {
+            @Override
+            public boolean expectsLines(int id) {
+                return ReplayBenchmark.this.lineRequests.contains(id);
+            }
+
+            @Override
+            public void onResponse(int id, Object result) {
+                count[0] += result instanceof Line[] ? ((Line[]) result).length : 1;
+            }
+
+            @Override
+            public void onError(int id, Object error) {}
+
+            @Override
+            public void onUpdate(Update update) {
+                count[0] += update.lines.length;
+            }
+        });
+        for (int i = 0; i < this.messages; i++) {
+            decoder.next();
+        }
+        transport.destroy();
+        return count[0];
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.adrientetar.xi.objects;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads issuing and completing requests against one table at the same time, with the
+ * lock-free table against a map and counter behind a lock. Vary contention with -t.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(4)
+@Fork(1)
+public class ResponseTableBenchmark {
+    private final ResponseTable<Request> table = new ResponseTable<>(1024);
+    private final HashMap<Integer, Request> map = new HashMap<>();
+    private int id = 0;
+
+    static final class Request implements ResponseTable.Entry {
+        final int id;
+
+        Request(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int getId() {
+            return this.id;
+        }
+    }
+
+    @Benchmark
+    public Request lockFree() {
+        int id = this.table.reserve();
+        this.table.put(new Request(id));
+        return this.table.remove(id);
+    }
+
+    @Benchmark
+    public Request locked() {
+        int id;
+        synchronized (this.map) {
+            id = this.id++;
+            this.map.put(id, new Request(id));
+        }
+        synchronized (this.map) {
+            return this.map.remove(id);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.github.adrientetar.xi.objects;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each transport against an echoing peer: raw copy of a trace of updates, the same with
+ * decoding on top, and the round trip of a small message.
+ *
+ * The stdio transport echoes through cat, leave it out with -p transport=loopback,socket
+ * where there is none.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransportBenchmark {
+    private static final int UPDATES = 20;
+    private static final byte[] PING = "{\"id\":1,\"result\":\"1\"}\n".getBytes(Charset.forName("UTF-8"));
+
+    @Param({"loopback", "socket", "stdio"})
+    public String transport;
+
+    private Transport client;
+    private ServerSocketChannel server;
+    private byte[] trace;
+    private final byte[] buffer = new byte[8192];
+    private final int[] count = {0};
+    private XiDecoder decoder;
+
+    private static void echo(final Transport peer) {
+        Thread thread = new Thread("Echo") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                InputStream in = peer.getInputStream();
+                OutputStream out = peer.getOutputStream();
+                try {
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // gone
+                }
+                peer.close();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The peer echoes back, so don't wait for all of it to be written before reading
+    private Thread writeAsync(final byte[] data) {
+        final Transport transport = this.client;
+        Thread thread = new Thread("Write") {
+            @Override
+            public void run() {
+                try {
+                    transport.getOutputStream().write(data);
+                    transport.getOutputStream().flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(100);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < UPDATES; i++) {
+            builder.append(Traces.update(0, i, 100, 10000, random));
+        }
+        this.trace = builder.toString().getBytes(Charset.forName("UTF-8"));
+
+        switch (this.transport) {
+            case "loopback":
+                Transport[] ends = Transport.loopback();
+                echo(ends[1]);
+                this.client = ends[0];
+                break;
+            case "socket":
+                this.server = ServerSocketChannel.open();
+                this.server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+                this.client = Transport.socket("127.0.0.1", this.server.socket().getLocalPort()).open();
+                echo(new SocketTransport(this.server.accept()));
+                break;
+            case "stdio":
+                this.client = Transport.stdio("cat").open();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transport " + this.transport);
+        }
+
+        // one decoder for the whole run, it keeps what it read ahead
+        this.decoder = new XiDecoder(this.client.getInputStream(), new XiDecoder.Dispatcher() {
+            @Override
+            public boolean expectsLines(int id) {
+                return false;
+            }
+
+            @Override
+            public void onResponse(int id, Object result) {
+                TransportBenchmark.this.count[0] += 1;
+            }
+
+            @Override
+            public void onError(int id, Object error) {}
+
+            @Override
+            public void onUpdate(Update update) {
+                TransportBenchmark.this.count[0] += update.lines.length;
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.client.destroy();
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    @Benchmark
+    public int copy() throws Exception {
+        Thread writer = this.writeAsync(this.trace);
+        InputStream in = this.client.getInputStream();
+        int count = 0;
+        while (count < this.trace.length) {
+            int read = in.read(this.buffer, 0, Math.min(this.buffer.length, this.trace.length - count));
+            if (read == -1) {
+                throw new EOFException("Peer went away");
+            }
+            count += read;
+        }
+        writer.join();
+        return count;
+    }
+
+    @Benchmark
+    public int decode() throws Exception {
+        Thread writer = this.writeAsync(this.trace);
+        for (int i = 0; i < UPDATES; i++) {
+            if (!this.decoder.next()) {
+                throw new EOFException("Peer went away");
+            }
+        }
+        writer.join();
+        return this.count[0];
+    }
+
+    @Benchmark
+    public int roundTrip() throws Exception {
+        OutputStream out = this.client.getOutputStream();
+        out.write(PING);
+        out.flush();
+        if (!this.decoder.next()) {
+            throw new EOFException("Peer went away");
+        }
+        return this.count[0];
+    }
+}